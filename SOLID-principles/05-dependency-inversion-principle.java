@@ -3,21 +3,122 @@
 // states that High-level modules should not depend on low-level modules.
 // Both should depend on abstractions. Additionally, abstractions should not depend on details. Details should depend on abstractions.
 
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
 // ============================================
 // BAD EXAMPLE - Violates DIP
 // ============================================
 
 // Low-level module
 class EmailSender {
+    private final OutputSink out;
+    
+    public EmailSender() {
+        this(OutputSink.CONSOLE);
+    }
+    
+    public EmailSender(OutputSink out) {
+        this.out = out;
+    }
+    
     public void sendEmail(String email, String message) {
-        System.out.println("Sending email to " + email + ": " + message);
+        out.println("Sending email to " + email + ": " + message);
     }
 }
 
 // Another low-level module
 class SMSSender {
+    private final OutputSink out;
+    
+    public SMSSender() {
+        this(OutputSink.CONSOLE);
+    }
+    
+    public SMSSender(OutputSink out) {
+        this.out = out;
+    }
+    
     public void sendSMS(String phone, String message) {
-        System.out.println("Sending SMS to " + phone + ": " + message);
+        out.println("Sending SMS to " + phone + ": " + message);
     }
 }
 
@@ -71,44 +172,211 @@ class BadExample {
 // Abstraction (interface) - both high and low-level modules depend on this
 interface Notifier {
     void send(String recipient, String message);
+    
+    // Sends many notifications in one go. Channels that support a real batch
+    // call override this; everything else still works through send().
+    default void sendBatch(List<Notification> batch) {
+        for (Notification notification : batch) {
+            send(notification.getRecipient(), notification.getMessage());
+        }
+    }
+}
+
+// A single pending notification, used by batch-capable notifiers
+class Notification {
+    private final String recipient;
+    private final String message;
+    
+    public Notification(String recipient, String message) {
+        this.recipient = recipient;
+        this.message = message;
+    }
+    
+    public String getRecipient() {
+        return recipient;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    // Recipients of each distinct message text, in order of first appearance -
+    // the unit a provider can take as one multi-recipient request
+    static Map<String, List<String>> recipientsByMessage(List<Notification> batch) {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        for (Notification notification : batch) {
+            groups.computeIfAbsent(notification.getMessage(), key -> new ArrayList<>())
+                .add(notification.getRecipient());
+        }
+        return groups;
+    }
+    
+    // Same, split further by the recipient's mail domain: message -> domain -> recipients
+    static Map<String, Map<String, List<String>>> recipientsByMessageAndDomain(List<Notification> batch) {
+        Map<String, Map<String, List<String>>> groups = new LinkedHashMap<>();
+        for (Notification notification : batch) {
+            groups.computeIfAbsent(notification.getMessage(), key -> new LinkedHashMap<>())
+                .computeIfAbsent(domainOf(notification.getRecipient()), key -> new ArrayList<>())
+                .add(notification.getRecipient());
+        }
+        return groups;
+    }
+    
+    static String domainOf(String address) {
+        return address.substring(address.lastIndexOf('@') + 1).toLowerCase(Locale.ROOT);
+    }
 }
 
 // Low-level modules implement the abstraction
 class EmailNotifier implements Notifier {
+    private static final MessageTemplate SENT = MessageTemplate.compile("Sending email to {recipient}: {message}");
+    private static final MessageTemplate BATCH = MessageTemplate.compile("Sending batch of {count} emails");
+    private static final MessageTemplate BATCH_ENTRY = MessageTemplate.compile("  to {recipient}: {message}");
+    private static final MessageTemplate BULK_ENTRY = MessageTemplate.compile("  to {count} recipients at {domain}: {message}");
+    
+    private final OutputSink out;
+    
+    public EmailNotifier() {
+        this(OutputSink.CONSOLE);
+    }
+    
+    public EmailNotifier(OutputSink out) {
+        this.out = out;
+    }
+    
     @Override
     public void send(String recipient, String message) {
-        System.out.println("Sending email to " + recipient + ": " + message);
+        SENT.printTo(out, recipient, message);
+    }
+    
+    // One provider round-trip for the whole batch; identical messages to the same
+    // domain go as a single multi-recipient email
+    @Override
+    public void sendBatch(List<Notification> batch) {
+        BATCH.printTo(out, String.valueOf(batch.size()));
+        Notification.recipientsByMessageAndDomain(batch).forEach((message, byDomain) ->
+            byDomain.forEach((domain, recipients) -> {
+                if (recipients.size() == 1) {
+                    BATCH_ENTRY.printTo(out, recipients.get(0), message);
+                } else {
+                    BULK_ENTRY.printTo(out, String.valueOf(recipients.size()), domain, message);
+                }
+            }));
     }
 }
 
 class SMSNotifier implements Notifier {
+    private static final MessageTemplate SENT = MessageTemplate.compile("Sending SMS to {recipient}: {message}");
+    private static final MessageTemplate BATCH = MessageTemplate.compile("Sending batch of {count} SMS messages");
+    private static final MessageTemplate BATCH_ENTRY = MessageTemplate.compile("  to {recipient}: {message}");
+    private static final MessageTemplate BULK_ENTRY = MessageTemplate.compile("  to {count} recipients: {message}");
+    
+    private final OutputSink out;
+    
+    public SMSNotifier() {
+        this(OutputSink.CONSOLE);
+    }
+    
+    public SMSNotifier(OutputSink out) {
+        this.out = out;
+    }
+    
     @Override
     public void send(String recipient, String message) {
-        System.out.println("Sending SMS to " + recipient + ": " + message);
+        SENT.printTo(out, recipient, message);
+    }
+    
+    // One provider round-trip for the whole batch; identical messages go as a
+    // single multi-recipient submit
+    @Override
+    public void sendBatch(List<Notification> batch) {
+        BATCH.printTo(out, String.valueOf(batch.size()));
+        Notification.recipientsByMessage(batch).forEach((message, recipients) -> {
+            if (recipients.size() == 1) {
+                BATCH_ENTRY.printTo(out, recipients.get(0), message);
+            } else {
+                BULK_ENTRY.printTo(out, String.valueOf(recipients.size()), message);
+            }
+        });
     }
 }
 
 class SlackNotifier implements Notifier {
+    private static final MessageTemplate SENT = MessageTemplate.compile("Sending Slack message to {recipient}: {message}");
+    private static final MessageTemplate BATCH = MessageTemplate.compile("Sending batch of {count} Slack messages");
+    private static final MessageTemplate BATCH_ENTRY = MessageTemplate.compile("  to {recipient}: {message}");
+    
+    private final OutputSink out;
+    
+    public SlackNotifier() {
+        this(OutputSink.CONSOLE);
+    }
+    
+    public SlackNotifier(OutputSink out) {
+        this.out = out;
+    }
+    
     @Override
     public void send(String recipient, String message) {
-        System.out.println("Sending Slack message to " + recipient + ": " + message);
+        SENT.printTo(out, recipient, message);
+    }
+    
+    // One provider round-trip for the whole batch
+    @Override
+    public void sendBatch(List<Notification> batch) {
+        BATCH.printTo(out, String.valueOf(batch.size()));
+        for (Notification notification : batch) {
+            BATCH_ENTRY.printTo(out, notification.getRecipient(), notification.getMessage());
+        }
     }
 }
 
 // High-level module depends on abstraction, not concrete implementations
 class GoodOrderService {
+    private static final MessageTemplate PROCESSING = MessageTemplate.compile("Processing order: {orderId}");
+    
     private Notifier notifier;
+    private AsyncNotifier asyncNotifier;
+    private final OutputSink out;
     
     // Dependency injected through constructor
     public GoodOrderService(Notifier notifier) {
+        this(notifier, notifier instanceof AsyncNotifier
+            ? (AsyncNotifier) notifier
+            : new AsyncNotifierAdapter(notifier));
+    }
+    
+    public GoodOrderService(Notifier notifier, AsyncNotifier asyncNotifier) {
+        this(notifier, asyncNotifier, OutputSink.CONSOLE);
+    }
+    
+    public GoodOrderService(Notifier notifier, AsyncNotifier asyncNotifier, OutputSink out) {
         this.notifier = notifier;
+        this.asyncNotifier = asyncNotifier;
+        this.out = out;
     }
     
     public void processOrder(Order order) {
-        System.out.println("Processing order: " + order.getOrderId());
+        PROCESSING.printTo(out, order.getOrderId());
         // Uses abstraction - doesn't care about the concrete implementation
         notifier.send(order.getCustomerEmail(), "Order confirmed");
     }
+    
+    // Returns as soon as the notification is handed off; the future completes
+    // when the channel acknowledges it
+    public CompletableFuture<Void> processOrderAsync(Order order) {
+        PROCESSING.printTo(out, order.getOrderId());
+        return asyncNotifier.sendAsync(order.getCustomerEmail(), "Order confirmed");
+    }
+    
+    // Pipelines many orders - all notifications are in flight together
+    public CompletableFuture<Void> processOrdersAsync(List<Order> orders) {
+        CompletableFuture<?>[] acknowledgements = new CompletableFuture<?>[orders.size()];
+        for (int i = 0; i < acknowledgements.length; i++) {
+            acknowledgements[i] = processOrderAsync(orders.get(i));
+        }
+        return CompletableFuture.allOf(acknowledgements);
+    }
 }
 
 // Usage of GOOD example - Example 1: Using different implementations
@@ -157,6 +425,114 @@ class MultiChannelNotifier implements Notifier {
             notifier.send(recipient, message);
         }
     }
+    
+    // Each channel gets the whole batch, so batch-capable channels keep their single round-trip
+    @Override
+    public void sendBatch(List<Notification> batch) {
+        for (Notifier notifier : notifiers) {
+            notifier.sendBatch(batch);
+        }
+    }
+    
+    // Sends to every channel at once, one virtual thread per channel.
+    // A slow channel no longer holds up the others: the call returns once every
+    // channel has finished or its deadline (per-channel or overall, whichever is
+    // earlier) has passed. Outcomes come back in the same order as the notifiers.
+    // A straggler is left running rather than interrupted: an interrupt would close
+    // any interruptible channel it is writing to, such as a socket or file.
+    public List<ChannelOutcome> sendConcurrently(String recipient, String message,
+                                                 Duration perChannelTimeout, Duration overallTimeout) {
+        long start = System.nanoTime();
+        long channelDeadline = start + perChannelTimeout.toNanos();
+        long overallDeadline = start + overallTimeout.toNanos();
+        long deadline = Math.min(channelDeadline, overallDeadline);
+        
+        List<CompletableFuture<ChannelOutcome>> pending = new ArrayList<>(notifiers.length);
+        for (Notifier notifier : notifiers) {
+            CompletableFuture<ChannelOutcome> outcome = new CompletableFuture<>();
+            Thread.ofVirtual().start(() -> {
+                try {
+                    notifier.send(recipient, message);
+                    outcome.complete(ChannelOutcome.delivered(notifier, elapsedSince(start)));
+                } catch (RuntimeException e) {
+                    outcome.complete(ChannelOutcome.failed(notifier, elapsedSince(start), e));
+                }
+            });
+            pending.add(outcome);
+        }
+        
+        List<ChannelOutcome> outcomes = new ArrayList<>(notifiers.length);
+        for (int i = 0; i < notifiers.length; i++) {
+            long remaining = deadline - System.nanoTime();
+            try {
+                outcomes.add(pending.get(i).get(Math.max(remaining, 0), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                // Stop waiting for the straggler; its send finishes in the background
+                outcomes.add(ChannelOutcome.timedOut(notifiers[i], elapsedSince(start)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                outcomes.add(ChannelOutcome.failed(notifiers[i], elapsedSince(start), e));
+            } catch (ExecutionException e) {
+                outcomes.add(ChannelOutcome.failed(notifiers[i], elapsedSince(start), e.getCause()));
+            }
+        }
+        return outcomes;
+    }
+    
+    private static Duration elapsedSince(long startNanos) {
+        return Duration.ofNanos(System.nanoTime() - startNanos);
+    }
+}
+
+// Result of sending through one channel of a MultiChannelNotifier
+class ChannelOutcome {
+    enum Status { DELIVERED, FAILED, TIMED_OUT }
+    
+    private final Notifier channel;
+    private final Status status;
+    private final Duration latency;
+    private final Throwable error;
+    
+    private ChannelOutcome(Notifier channel, Status status, Duration latency, Throwable error) {
+        this.channel = channel;
+        this.status = status;
+        this.latency = latency;
+        this.error = error;
+    }
+    
+    static ChannelOutcome delivered(Notifier channel, Duration latency) {
+        return new ChannelOutcome(channel, Status.DELIVERED, latency, null);
+    }
+    
+    static ChannelOutcome failed(Notifier channel, Duration latency, Throwable error) {
+        return new ChannelOutcome(channel, Status.FAILED, latency, error);
+    }
+    
+    static ChannelOutcome timedOut(Notifier channel, Duration latency) {
+        return new ChannelOutcome(channel, Status.TIMED_OUT, latency, null);
+    }
+    
+    public Notifier getChannel() {
+        return channel;
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    public Duration getLatency() {
+        return latency;
+    }
+    
+    public Throwable getError() {
+        return error;
+    }
+    
+    @Override
+    public String toString() {
+        return channel.getClass().getSimpleName() + " " + status + " in " + latency.toMillis() + "ms"
+            + (error != null ? " (" + error.getMessage() + ")" : "");
+    }
 }
 
 class MultiChannelExample {
@@ -179,48 +555,507 @@ class MultiChannelExample {
     }
 }
 
+class ConcurrentMultiChannelExample {
+    public void demonstrate() {
+        System.out.println("=== CONCURRENT MULTI-CHANNEL NOTIFICATIONS ===");
+        
+        MultiChannelNotifier multiNotifier = new MultiChannelNotifier(
+            new EmailNotifier(),
+            new SMSNotifier(),
+            new SlackNotifier()
+        );
+        
+        // Total time is bounded by the slowest channel (or the deadline), not the sum of all of them
+        List<ChannelOutcome> outcomes = multiNotifier.sendConcurrently(
+            "customer@example.com", "Order confirmed",
+            Duration.ofMillis(500), Duration.ofSeconds(1));
+        for (ChannelOutcome outcome : outcomes) {
+            System.out.println(outcome);
+        }
+        
+        System.out.println();
+    }
+}
+
 
 // ============================================
-// TESTING USAGE: Using Mock
+// ADVANCED USAGE: Batching Notifications
 // ============================================
 
-class MockNotifier implements Notifier {
-    private boolean wasCalled = false;
-    private String lastRecipient;
-    private String lastMessage;
+// Decorator that collects individual sends and hands them to the wrapped
+// notifier as one batch, either when the batch is full or when the oldest
+// pending message has waited for the linger time - whichever comes first.
+class BatchingNotifier implements Notifier, AutoCloseable {
+    private final Notifier delegate;
+    private final int maxBatchSize;
+    private final Duration linger;
+    private final ScheduledThreadPoolExecutor timer;
+    
+    private List<Notification> pending = new ArrayList<>();
+    private long batchNumber = 0;
+    private boolean closed;
+    
+    public BatchingNotifier(Notifier delegate, int maxBatchSize, Duration linger) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.linger = linger;
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "batching-notifier-linger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Linger timers still waiting at close() have nothing left to flush
+        timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
     
     @Override
     public void send(String recipient, String message) {
-        this.wasCalled = true;
-        this.lastRecipient = recipient;
-        this.lastMessage = message;
-        System.out.println("Mock: Captured notification to " + recipient);
+        List<Notification> full = null;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("BatchingNotifier is closed");
+            }
+            pending.add(new Notification(recipient, message));
+            if (pending.size() >= maxBatchSize) {
+                full = takePending();
+            } else if (pending.size() == 1) {
+                // First message of a new batch starts the linger clock
+                long batch = batchNumber;
+                timer.schedule(() -> flushBatch(batch), linger.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+        // Deliver outside the lock so other callers can keep filling the next batch
+        if (full != null) {
+            delegate.sendBatch(full);
+        }
     }
     
-    public boolean wasNotificationSent() {
-        return wasCalled;
+    @Override
+    public void sendBatch(List<Notification> batch) {
+        for (Notification notification : batch) {
+            send(notification.getRecipient(), notification.getMessage());
+        }
     }
     
-    public String getLastRecipient() {
-        return lastRecipient;
+    // Sends whatever is pending right now
+    public void flush() {
+        List<Notification> batch;
+        synchronized (this) {
+            batch = pending.isEmpty() ? null : takePending();
+        }
+        if (batch != null) {
+            delegate.sendBatch(batch);
+        }
+    }
+    
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        // Let a linger flush that is already delivering finish rather than interrupt it
+        timer.shutdown();
+        try {
+            timer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // Linger timer fired - only flush if that batch hasn't already been sent.
+    // Nobody waits on the timer's future, so a failure is reported here.
+    private void flushBatch(long batch) {
+        List<Notification> expired = null;
+        synchronized (this) {
+            if (batch == batchNumber && !pending.isEmpty()) {
+                expired = takePending();
+            }
+        }
+        if (expired != null) {
+            try {
+                delegate.sendBatch(expired);
+            } catch (RuntimeException e) {
+                System.out.println("Batch of " + expired.size() + " notifications failed: " + e.getMessage());
+            }
+        }
+    }
+    
+    private List<Notification> takePending() {
+        List<Notification> batch = pending;
+        pending = new ArrayList<>(maxBatchSize);
+        batchNumber++;
+        return batch;
     }
 }
 
-class TestingExample {
+class BatchingExample {
     public void demonstrate() {
-        System.out.println("=== TESTING WITH MOCK ===");
+        System.out.println("=== BATCHING NOTIFICATIONS ===");
         
-        Order order = new Order("test@example.com", "+1111111111", "TEST-001");
+        // Up to 3 messages per provider call, or whatever has arrived within 50ms
+        try (BatchingNotifier batchingNotifier =
+                 new BatchingNotifier(new EmailNotifier(), 3, Duration.ofMillis(50))) {
+            GoodOrderService service = new GoodOrderService(batchingNotifier);
+            for (int i = 1; i <= 4; i++) {
+                service.processOrder(new Order("customer" + i + "@example.com", "+1234567890", "ORD-10" + i));
+            }
+            // The 4th order is sent on its own once the linger time passes (or on close)
+        }
         
-        // Use mock for testing - no real notifications sent!
-        MockNotifier mockNotifier = new MockNotifier();
-        GoodOrderService service = new GoodOrderService(mockNotifier);
-        service.processOrder(order);
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Asynchronous Notifications
+// ============================================
+
+// Non-blocking abstraction - the future is the channel's acknowledgement
+interface AsyncNotifier {
+    CompletableFuture<Void> sendAsync(String recipient, String message);
+    
+    // Waits for an acknowledgement, rethrowing the channel's own exception rather than a wrapper
+    static void await(CompletableFuture<?> acknowledgement) {
+        try {
+            acknowledgement.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
+
+// Adapts any synchronous Notifier to AsyncNotifier. Each send runs on its own
+// virtual thread by default, so a blocking channel never ties up a platform thread.
+class AsyncNotifierAdapter implements AsyncNotifier, Notifier {
+    private static final Executor VIRTUAL_THREADS = Executors.newVirtualThreadPerTaskExecutor();
+    
+    private final Notifier delegate;
+    private final Executor executor;
+    
+    public AsyncNotifierAdapter(Notifier delegate) {
+        this(delegate, VIRTUAL_THREADS);
+    }
+    
+    public AsyncNotifierAdapter(Notifier delegate, Executor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+    
+    @Override
+    public CompletableFuture<Void> sendAsync(String recipient, String message) {
+        return CompletableFuture.runAsync(() -> delegate.send(recipient, message), executor);
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        delegate.send(recipient, message);
+    }
+    
+    @Override
+    public void sendBatch(List<Notification> batch) {
+        delegate.sendBatch(batch);
+    }
+}
+
+class AsyncExample {
+    public void demonstrate() {
+        System.out.println("=== ASYNCHRONOUS NOTIFICATIONS ===");
         
-        // Verify the notification was sent
-        if (mockNotifier.wasNotificationSent()) {
-            System.out.println("✓ Test passed: Notification was sent to " + 
-                             mockNotifier.getLastRecipient());
+        List<Order> orders = List.of(
+            new Order("first@example.com", "+1234567890", "ORD-201"),
+            new Order("second@example.com", "+1234567891", "ORD-202"),
+            new Order("third@example.com", "+1234567892", "ORD-203")
+        );
+        
+        // Same synchronous EmailNotifier, but the service no longer waits on it
+        GoodOrderService service = new GoodOrderService(new EmailNotifier());
+        CompletableFuture<Void> allAcknowledged = service.processOrdersAsync(orders);
+        
+        allAcknowledged.join();
+        System.out.println("All " + orders.size() + " confirmations acknowledged");
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Durable Outbox
+// ============================================
+
+// Transactional outbox in front of any Notifier. send() appends the notification
+// to a memory-mapped, append-only log and returns straight away; a background
+// drainer delivers log entries to the real notifier and checkpoints how far it got.
+// After a crash, everything past the last checkpoint is replayed (at-least-once).
+//
+// Appends land in the OS page cache, so they survive the process dying. Surviving
+// a machine crash needs fsync; instead of one per order, a group-commit thread
+// forces the log every syncInterval, and sync() is there for callers that must wait.
+// The checkpoint never moves past the part of the log that has been forced, so after
+// a machine crash it can't point beyond the recovered end of the log.
+//
+// Record layout: [int recordLength][int crc][int generation][int recipientLength][recipient][message], UTF-8.
+// The CRC32C covers everything after it and the length is written last, so a torn
+// write or a stale slot from an earlier generation never passes for a record.
+// A notification that still fails after MAX_DELIVERY_ATTEMPTS is logged and skipped
+// so the records behind it keep moving.
+// Once the drainer has caught up with a log that is at least a quarter full, writing
+// starts again from offset 0 under a new generation; recovery only reads records of
+// the checkpoint's generation, so older records left further along are ignored.
+class NotificationOutbox implements Notifier, AutoCloseable {
+    private static final int HEADER_BYTES = 16;
+    private static final int MAX_DRAIN_BATCH = 256;
+    private static final int MAX_DELIVERY_ATTEMPTS = 5;
+    
+    private final Notifier delegate;
+    private final FileChannel logChannel;
+    private final FileChannel checkpointChannel;
+    private final MappedByteBuffer log;
+    // [long position][int generation]
+    private final MappedByteBuffer checkpoint;
+    private final ScheduledExecutorService groupCommit;
+    private final Object syncLock = new Object();
+    private final Thread drainer;
+    
+    private volatile int generation;
+    private volatile int writePosition;
+    private volatile int syncedPosition;
+    private volatile int deliveredPosition;
+    private volatile boolean running = true;
+    
+    public NotificationOutbox(Path directory, int capacityBytes, Notifier delegate, Duration syncInterval)
+            throws IOException {
+        this.delegate = delegate;
+        Files.createDirectories(directory);
+        this.logChannel = FileChannel.open(directory.resolve("outbox.log"),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.checkpointChannel = FileChannel.open(directory.resolve("outbox.checkpoint"),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+        this.checkpoint = checkpointChannel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES + Integer.BYTES);
+        
+        // Recovery: the log ends at the first record that is incomplete or from an older generation
+        this.generation = checkpoint.getInt(Long.BYTES);
+        this.writePosition = findEndOfLog();
+        this.syncedPosition = writePosition;
+        this.deliveredPosition = (int) Math.min(checkpoint.getLong(0), writePosition);
+        
+        this.groupCommit = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbox-group-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalNanos = syncInterval.toNanos();
+        groupCommit.scheduleWithFixedDelay(this::sync, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        
+        this.drainer = new Thread(this::drain, "outbox-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        byte[] recipientBytes = recipient.getBytes(StandardCharsets.UTF_8);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        int recordLength = HEADER_BYTES + recipientBytes.length + messageBytes.length;
+        
+        synchronized (this) {
+            int position = writePosition;
+            if (position + recordLength > log.capacity()) {
+                throw new IllegalStateException("Outbox is full");
+            }
+            // Clear any length left from an older generation before touching the body
+            log.putInt(position, 0);
+            log.putInt(position + 8, generation);
+            log.putInt(position + 12, recipientBytes.length);
+            log.put(position + HEADER_BYTES, recipientBytes);
+            log.put(position + HEADER_BYTES + recipientBytes.length, messageBytes);
+            log.putInt(position + 4, checksum(position, recordLength));
+            // Length goes in last: a record only exists once it is complete
+            log.putInt(position, recordLength);
+            writePosition = position + recordLength;
+        }
+        LockSupport.unpark(drainer);
+    }
+    
+    // Forces everything appended so far to disk. Called by the group-commit thread,
+    // so any number of appends share a single fsync.
+    public void sync() {
+        synchronized (syncLock) {
+            int target = writePosition;
+            if (target > syncedPosition) {
+                log.force();
+                syncedPosition = target;
+            }
+        }
+    }
+    
+    // Bytes of log that have been appended but not yet delivered
+    public int pendingBytes() {
+        return writePosition - deliveredPosition;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        groupCommit.shutdownNow();
+        sync();
+        advanceCheckpoint();
+        logChannel.close();
+        checkpointChannel.close();
+    }
+    
+    private int findEndOfLog() {
+        int position = 0;
+        while (isValidRecord(position, log.capacity())) {
+            position += log.getInt(position);
+        }
+        return position;
+    }
+    
+    private void drain() {
+        int failedAttempts = 0;
+        while (running || pendingBytes() > 0) {
+            int position = deliveredPosition;
+            int end = writePosition;
+            if (position >= end) {
+                advanceCheckpoint();
+                rewindIfDrained();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                continue;
+            }
+            
+            int delivered = 0;
+            RuntimeException failure = null;
+            while (position < end && delivered < MAX_DRAIN_BATCH) {
+                if (!isValidRecord(position, end)) {
+                    // No length to trust, so there is no next record to resume from
+                    System.out.println("Outbox log corrupt at offset " + position + ", dropping " + (end - position) + " bytes");
+                    position = end;
+                    break;
+                }
+                int recordLength = log.getInt(position);
+                int recipientLength = log.getInt(position + 12);
+                String recipient = readString(position + HEADER_BYTES, recipientLength);
+                String message = readString(position + HEADER_BYTES + recipientLength,
+                    recordLength - HEADER_BYTES - recipientLength);
+                try {
+                    delegate.send(recipient, message);
+                    failedAttempts = 0;
+                } catch (RuntimeException e) {
+                    if (++failedAttempts < MAX_DELIVERY_ATTEMPTS) {
+                        failure = e;
+                        break;
+                    }
+                    System.out.println("Giving up on notification to " + recipient + ": " + e.getMessage());
+                    failedAttempts = 0;
+                }
+                position += recordLength;
+                delivered++;
+            }
+            // One checkpoint write per batch, not per notification
+            deliveredPosition = position;
+            advanceCheckpoint();
+            
+            if (failure != null) {
+                if (!running) {
+                    // Undelivered entries stay in the log and are replayed on restart
+                    return;
+                }
+                System.out.println("Outbox delivery failed, will retry: " + failure.getMessage());
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            }
+        }
+    }
+    
+    // A record counts only if its lengths are in range, it belongs to the current
+    // generation and its checksum matches; anything else is a torn or stale write
+    private boolean isValidRecord(int position, int limit) {
+        if (position + HEADER_BYTES > limit) {
+            return false;
+        }
+        int recordLength = log.getInt(position);
+        if (recordLength < HEADER_BYTES || recordLength > limit - position) {
+            return false;
+        }
+        int recipientLength = log.getInt(position + 12);
+        if (log.getInt(position + 8) != generation || recipientLength < 0 || recipientLength > recordLength - HEADER_BYTES) {
+            return false;
+        }
+        return log.getInt(position + 4) == checksum(position, recordLength);
+    }
+    
+    private int checksum(int position, int recordLength) {
+        CRC32C crc = new CRC32C();
+        crc.update(log.slice(position + 8, recordLength - 8));
+        return (int) crc.getValue();
+    }
+    
+    // Records delivered but not yet forced are replayed after a machine crash rather
+    // than checkpointed past the durable end of the log
+    private void advanceCheckpoint() {
+        long target = Math.min(deliveredPosition, syncedPosition);
+        if (target > checkpoint.getLong(0)) {
+            checkpoint.putLong(0, target);
+            checkpoint.force();
+        }
+    }
+    
+    private void rewindIfDrained() {
+        synchronized (this) {
+            int end = writePosition;
+            if (end < log.capacity() / 4 || deliveredPosition != end) {
+                return;
+            }
+            synchronized (syncLock) {
+                // Position and generation share a sector, so they reach disk together
+                generation++;
+                checkpoint.putLong(0, 0);
+                checkpoint.putInt(Long.BYTES, generation);
+                checkpoint.force();
+                writePosition = 0;
+                syncedPosition = 0;
+                deliveredPosition = 0;
+            }
+        }
+    }
+    
+    private String readString(int position, int length) {
+        byte[] bytes = new byte[length];
+        log.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+class OutboxExample {
+    public void demonstrate() {
+        System.out.println("=== DURABLE OUTBOX ===");
+        
+        try {
+            Path directory = Files.createTempDirectory("notification-outbox");
+            // processOrder returns once the notification is in the log, not once it is delivered
+            try (NotificationOutbox outbox = new NotificationOutbox(
+                     directory, 1 << 20, new EmailNotifier(), Duration.ofMillis(5))) {
+                GoodOrderService service = new GoodOrderService(outbox);
+                service.processOrder(new Order("customer@example.com", "+1234567890", "ORD-301"));
+                service.processOrder(new Order("customer@example.com", "+1234567890", "ORD-302"));
+            }
+        } catch (IOException e) {
+            System.out.println("Outbox unavailable: " + e.getMessage());
         }
         
         System.out.println();
@@ -228,6 +1063,4571 @@ class TestingExample {
 }
 
 
+// ============================================
+// ADVANCED USAGE: Rate and Concurrency Limiting
+// ============================================
+
+// Lock-free token bucket, kept as a single "theoretical arrival time" (GCRA).
+// Each permit pushes that time forward by one interval; a request is allowed while
+// it is no further ahead of now than the burst allowance. One CAS per permit, no lock.
+class TokenBucket {
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+    
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.burstNanos = intervalNanos * Math.max(burst - 1, 0);
+    }
+    
+    // Reserves a permit if one is available within maxWaitNanos.
+    // Returns how long the caller must wait for it, or -1 if it would wait too long.
+    public long reserve(long maxWaitNanos) {
+        return reserve(1, maxWaitNanos);
+    }
+    
+    // Same for several permits at once (a batch). The wait is that of the first
+    // permit; the rest are charged to whoever comes next, so a batch larger than
+    // the burst isn't rejected forever.
+    public long reserve(int permits, long maxWaitNanos) {
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrival.get();
+            long start = Math.max(current, now);
+            long wait = start - burstNanos - now;
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (theoreticalArrival.compareAndSet(current, start + intervalNanos * permits)) {
+                return Math.max(wait, 0);
+            }
+        }
+    }
+}
+
+// Concurrency limit that adapts to observed latency (gradient limiter).
+// When latency rises above the best recent latency, the channel is queueing
+// internally, so the limit shrinks; when latency is at its floor, it grows.
+// The floor is the minimum over the last one to two windows of samples, so a
+// single unusually fast call ages out instead of pinning the limit down.
+class AdaptiveConcurrencyLimit {
+    private static final double SMOOTHING = 0.2;
+    private static final int RTT_WINDOW_SAMPLES = 1000;
+    
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong windowMinRttNanos = new AtomicLong(Long.MAX_VALUE);
+    private volatile long previousWindowMinRttNanos = Long.MAX_VALUE;
+    private volatile int limit;
+    
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+    
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+    
+    public void release(long rttNanos) {
+        inFlight.decrementAndGet();
+        long minRtt = Math.min(previousWindowMinRttNanos, windowMinRttNanos.accumulateAndGet(rttNanos, Math::min));
+        if (samples.incrementAndGet() % RTT_WINDOW_SAMPLES == 0) {
+            previousWindowMinRttNanos = windowMinRttNanos.getAndSet(Long.MAX_VALUE);
+        }
+        
+        // A racing update may be lost, which only delays adaptation by one sample
+        int current = limit;
+        double gradient = Math.max(0.5, Math.min(1.0, (double) minRtt / Math.max(rttNanos, 1)));
+        double queueAllowance = Math.sqrt(current);
+        double target = current * gradient + queueAllowance;
+        double smoothed = current * (1 - SMOOTHING) + target * SMOOTHING;
+        limit = (int) Math.max(minLimit, Math.min(maxLimit, Math.round(smoothed)));
+    }
+    
+    // For failed calls: a fast failure says nothing about how loaded the channel is
+    public void releaseWithoutSample() {
+        inFlight.decrementAndGet();
+    }
+    
+    public int getLimit() {
+        return limit;
+    }
+    
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
+
+// Decorator that applies flow control in front of one channel. Excess load either
+// waits (up to maxQueueWait) or is rejected straight away - it never piles an
+// unbounded number of threads onto a channel that is already saturated.
+class RateLimitedNotifier implements Notifier {
+    private final Notifier delegate;
+    private final TokenBucket rateLimit;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final long maxQueueWaitNanos;
+    
+    public RateLimitedNotifier(Notifier delegate, TokenBucket rateLimit,
+                               AdaptiveConcurrencyLimit concurrencyLimit, Duration maxQueueWait) {
+        this.delegate = delegate;
+        this.rateLimit = rateLimit;
+        this.concurrencyLimit = concurrencyLimit;
+        this.maxQueueWaitNanos = maxQueueWait.toNanos();
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        admit(1, recipient);
+        
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            delegate.send(recipient, message);
+            succeeded = true;
+        } finally {
+            if (succeeded) {
+                concurrencyLimit.release(System.nanoTime() - start);
+            } else {
+                concurrencyLimit.releaseWithoutSample();
+            }
+        }
+    }
+    
+    // A batch is one provider call: one concurrency slot, one rate permit per
+    // notification. Its latency isn't comparable to a single send's, so it
+    // doesn't feed the adaptive limit.
+    @Override
+    public void sendBatch(List<Notification> batch) {
+        admit(batch.size(), "batch of " + batch.size());
+        try {
+            delegate.sendBatch(batch);
+        } finally {
+            concurrencyLimit.releaseWithoutSample();
+        }
+    }
+    
+    private void admit(int permits, String what) {
+        long deadline = System.nanoTime() + maxQueueWaitNanos;
+        
+        long wait = rateLimit.reserve(permits, maxQueueWaitNanos);
+        if (wait < 0) {
+            throw new RejectedExecutionException("Rate limit exceeded for " + what);
+        }
+        if (wait > 0) {
+            LockSupport.parkNanos(wait);
+        }
+        
+        while (!concurrencyLimit.tryAcquire()) {
+            if (System.nanoTime() >= deadline) {
+                throw new RejectedExecutionException("Concurrency limit " + concurrencyLimit.getLimit()
+                    + " reached for " + what);
+            }
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+    }
+}
+
+class RateLimitingExample {
+    public void demonstrate() {
+        System.out.println("=== RATE AND CONCURRENCY LIMITING ===");
+        
+        // SMS provider allows 5 messages/second with bursts of 2; excess is rejected at once
+        Notifier smsNotifier = new RateLimitedNotifier(
+            new SMSNotifier(),
+            new TokenBucket(5, 2),
+            new AdaptiveConcurrencyLimit(4, 1, 32),
+            Duration.ZERO
+        );
+        
+        for (int i = 1; i <= 3; i++) {
+            try {
+                smsNotifier.send("+1234567890", "Order update " + i);
+            } catch (RejectedExecutionException e) {
+                System.out.println("Shed: " + e.getMessage());
+            }
+        }
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Circuit Breaker and Bulkhead
+// ============================================
+
+// Fails fast on a channel that keeps failing. After failureThreshold consecutive
+// failures (or calls slower than slowCallThreshold) the circuit opens and calls are
+// rejected without touching the channel. Once openDuration has passed, a single
+// probe call is let through (half-open): success closes the circuit, failure reopens it.
+class CircuitBreakerNotifier implements Notifier {
+    enum State { CLOSED, OPEN, HALF_OPEN }
+    
+    private final Notifier delegate;
+    private final int failureThreshold;
+    private final long slowCallThresholdNanos;
+    private final long openDurationNanos;
+    
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAt;
+    
+    public CircuitBreakerNotifier(Notifier delegate, int failureThreshold,
+                                  Duration slowCallThreshold, Duration openDuration) {
+        this.delegate = delegate;
+        this.failureThreshold = failureThreshold;
+        this.slowCallThresholdNanos = slowCallThreshold.toNanos();
+        this.openDurationNanos = openDuration.toNanos();
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        call(() -> delegate.send(recipient, message));
+    }
+    
+    // A batch counts as one call, like it is one call to the provider
+    @Override
+    public void sendBatch(List<Notification> batch) {
+        call(() -> delegate.sendBatch(batch));
+    }
+    
+    public State getState() {
+        return state.get();
+    }
+    
+    private void call(Runnable send) {
+        State current = state.get();
+        boolean probe = false;
+        if (current == State.OPEN) {
+            // Only the first caller after the cool-down gets to probe
+            if (System.nanoTime() - openedAt < openDurationNanos
+                    || !state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+                throw new RejectedExecutionException("Circuit open for " + delegate.getClass().getSimpleName());
+            }
+            probe = true;
+        } else if (current == State.HALF_OPEN) {
+            throw new RejectedExecutionException("Circuit half-open, probe in progress");
+        }
+        
+        long start = System.nanoTime();
+        try {
+            send.run();
+        } catch (RuntimeException e) {
+            onFailure(probe);
+            throw e;
+        }
+        if (System.nanoTime() - start > slowCallThresholdNanos) {
+            onFailure(probe);
+        } else {
+            onSuccess(probe);
+        }
+    }
+    
+    // Calls that started before the circuit opened finish late; only the probe
+    // may close it again, so a straggler can't cut the cool-down short
+    private void onSuccess(boolean probe) {
+        consecutiveFailures.set(0);
+        if (probe) {
+            state.compareAndSet(State.HALF_OPEN, State.CLOSED);
+        }
+    }
+    
+    private void onFailure(boolean probe) {
+        if (probe) {
+            openedAt = System.nanoTime();
+            state.compareAndSet(State.HALF_OPEN, State.OPEN);
+        } else if (consecutiveFailures.incrementAndGet() >= failureThreshold && state.get() == State.CLOSED) {
+            openedAt = System.nanoTime();
+            state.compareAndSet(State.CLOSED, State.OPEN);
+        }
+    }
+}
+
+// Caps how many calls can be inside one channel at a time. A hanging channel can
+// hold at most maxConcurrentCalls caller threads; everyone else is turned away
+// (after waiting at most maxWait) and stays free to use the healthy channels.
+class BulkheadNotifier implements Notifier {
+    private final Notifier delegate;
+    private final Semaphore permits;
+    private final long maxWaitNanos;
+    
+    public BulkheadNotifier(Notifier delegate, int maxConcurrentCalls, Duration maxWait) {
+        this.delegate = delegate;
+        this.permits = new Semaphore(maxConcurrentCalls);
+        this.maxWaitNanos = maxWait.toNanos();
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        call(() -> delegate.send(recipient, message));
+    }
+    
+    @Override
+    public void sendBatch(List<Notification> batch) {
+        call(() -> delegate.sendBatch(batch));
+    }
+    
+    private void call(Runnable send) {
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted waiting for bulkhead", e);
+        }
+        if (!acquired) {
+            throw new RejectedExecutionException("Bulkhead full for " + delegate.getClass().getSimpleName());
+        }
+        try {
+            send.run();
+        } finally {
+            permits.release();
+        }
+    }
+    
+    public int getAvailableCalls() {
+        return permits.availablePermits();
+    }
+}
+
+class IsolationExample {
+    public void demonstrate() {
+        System.out.println("=== CIRCUIT BREAKER AND BULKHEAD ===");
+        
+        // A provider that is down
+        Notifier brokenSlack = (recipient, message) -> {
+            throw new IllegalStateException("Slack is unavailable");
+        };
+        CircuitBreakerNotifier slackBreaker = new CircuitBreakerNotifier(
+            new BulkheadNotifier(brokenSlack, 10, Duration.ZERO),
+            2, Duration.ofSeconds(2), Duration.ofSeconds(30));
+        
+        Notifier email = new CircuitBreakerNotifier(
+            new BulkheadNotifier(new EmailNotifier(), 10, Duration.ZERO),
+            2, Duration.ofSeconds(2), Duration.ofSeconds(30));
+        
+        for (int i = 1; i <= 3; i++) {
+            email.send("customer@example.com", "Order update " + i);
+            try {
+                slackBreaker.send("#orders", "Order update " + i);
+            } catch (RuntimeException e) {
+                System.out.println("Slack " + slackBreaker.getState() + ": " + e.getMessage());
+            }
+        }
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Idempotent Order Processing
+// ============================================
+
+// Bounded, concurrent "have we already sent this?" cache for (orderId, channel) pairs.
+// Entries are stored as 64-bit fingerprints plus an expiry time in two flat arrays
+// (12 bytes per slot), grouped into small buckets and guarded by striped locks.
+// Each key has two candidate buckets and goes into the emptier one; with at least
+// twice as many slots as maximumSize, both being full is vanishingly rare. Even
+// then a new key is always recorded - it is the one a retry will repeat - and the
+// entry closest to expiry makes room for it.
+class DeduplicationCache {
+    private static final int WAYS = 8;
+    private static final int STRIPES = 64;
+    
+    private final long[] fingerprints;
+    private final int[] expiresAtSeconds;
+    private final int bucketMask;
+    private final Object[] locks = new Object[STRIPES];
+    private final int ttlSeconds;
+    private final long startNanos = System.nanoTime();
+    
+    public DeduplicationCache(int maximumSize, Duration timeToLive) {
+        int buckets = Integer.highestOneBit(Math.max(maximumSize / WAYS, 1) * 4 - 1);
+        this.fingerprints = new long[buckets * WAYS];
+        this.expiresAtSeconds = new int[buckets * WAYS];
+        this.bucketMask = buckets - 1;
+        this.ttlSeconds = (int) Math.max(timeToLive.toSeconds(), 1);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+    
+    // Returns true the first time (orderId, channel) is seen within the TTL,
+    // false for a duplicate that should be dropped
+    public boolean markIfAbsent(String orderId, String channel) {
+        long fingerprint = fingerprint(orderId, channel);
+        int first = firstBucket(fingerprint);
+        int second = secondBucket(fingerprint);
+        int now = nowSeconds();
+        
+        synchronized (lowerLock(first, second)) {
+            synchronized (higherLock(first, second)) {
+                int firstFree = -1;
+                int secondFree = -1;
+                int firstLive = 0;
+                int secondLive = 0;
+                for (int way = 0; way < WAYS; way++) {
+                    int i = first * WAYS + way;
+                    if (fingerprints[i] != 0 && expiresAtSeconds[i] > now) {
+                        if (fingerprints[i] == fingerprint) {
+                            return false;
+                        }
+                        firstLive++;
+                    } else if (firstFree < 0) {
+                        firstFree = i;
+                    }
+                    int j = second * WAYS + way;
+                    if (fingerprints[j] != 0 && expiresAtSeconds[j] > now) {
+                        if (fingerprints[j] == fingerprint) {
+                            return false;
+                        }
+                        secondLive++;
+                    } else if (secondFree < 0) {
+                        secondFree = j;
+                    }
+                }
+                
+                int slot = secondFree < 0 || (firstFree >= 0 && firstLive <= secondLive) ? firstFree : secondFree;
+                if (slot < 0) {
+                    slot = first * WAYS;
+                    for (int way = 0; way < WAYS; way++) {
+                        for (int i : new int[] {first * WAYS + way, second * WAYS + way}) {
+                            if (expiresAtSeconds[i] < expiresAtSeconds[slot]) {
+                                slot = i;
+                            }
+                        }
+                    }
+                }
+                fingerprints[slot] = fingerprint;
+                expiresAtSeconds[slot] = now + ttlSeconds;
+            }
+        }
+        return true;
+    }
+    
+    // Forgets (orderId, channel), e.g. because the send it guarded failed and a
+    // retry must be let through
+    public void remove(String orderId, String channel) {
+        long fingerprint = fingerprint(orderId, channel);
+        int first = firstBucket(fingerprint);
+        int second = secondBucket(fingerprint);
+        
+        synchronized (lowerLock(first, second)) {
+            synchronized (higherLock(first, second)) {
+                for (int way = 0; way < WAYS; way++) {
+                    for (int i : new int[] {first * WAYS + way, second * WAYS + way}) {
+                        if (fingerprints[i] == fingerprint) {
+                            fingerprints[i] = 0;
+                            expiresAtSeconds[i] = 0;
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    private int firstBucket(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & bucketMask;
+    }
+    
+    private int secondBucket(long fingerprint) {
+        return (int) ((fingerprint * 0x9E3779B97F4A7C15L) >>> 32) & bucketMask;
+    }
+    
+    // Both buckets' stripes are held; taking them in index order rules out deadlock
+    private Object lowerLock(int first, int second) {
+        return locks[Math.min(first & (STRIPES - 1), second & (STRIPES - 1))];
+    }
+    
+    private Object higherLock(int first, int second) {
+        return locks[Math.max(first & (STRIPES - 1), second & (STRIPES - 1))];
+    }
+    
+    private int nowSeconds() {
+        return (int) TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos);
+    }
+    
+    // 64 bits because a 32-bit hash would collide constantly at tens of millions of keys
+    private static long fingerprint(String orderId, String channel) {
+        long hash = Fnv1a.hash(Fnv1a.OFFSET_BASIS, orderId);
+        hash = Fnv1a.hash(hash, "\u001F");
+        hash = Fnv1a.hash(hash, channel);
+        // Zero marks an empty slot
+        return hash == 0 ? 1 : hash;
+    }
+}
+
+// 64-bit FNV-1a string hash, shared by the caches and routers in this file
+final class Fnv1a {
+    static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+    
+    private Fnv1a() {
+    }
+    
+    static long hash(CharSequence text) {
+        return hash(OFFSET_BASIS, text);
+    }
+    
+    // Continues an existing hash, so several strings can be hashed as one key
+    static long hash(long hash, CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * PRIME;
+        }
+        return hash;
+    }
+}
+
+// Wraps an order service so retried orders don't send a second confirmation
+class IdempotentOrderService {
+    private final GoodOrderService delegate;
+    private final DeduplicationCache sentConfirmations;
+    private final String channel;
+    
+    public IdempotentOrderService(GoodOrderService delegate, DeduplicationCache sentConfirmations, String channel) {
+        this.delegate = delegate;
+        this.sentConfirmations = sentConfirmations;
+        this.channel = channel;
+    }
+    
+    public void processOrder(Order order) {
+        if (!sentConfirmations.markIfAbsent(order.getOrderId(), channel)) {
+            System.out.println("Skipping duplicate order: " + order.getOrderId());
+            return;
+        }
+        // Marked up front so concurrent duplicates are dropped; unmarked again if the
+        // send fails, since the upstream retry is exactly what should get through
+        try {
+            delegate.processOrder(order);
+        } catch (RuntimeException e) {
+            sentConfirmations.remove(order.getOrderId(), channel);
+            throw e;
+        }
+    }
+}
+
+class IdempotencyExample {
+    public void demonstrate() {
+        System.out.println("=== IDEMPOTENT ORDER PROCESSING ===");
+        
+        DeduplicationCache sentConfirmations = new DeduplicationCache(1_000_000, Duration.ofHours(1));
+        IdempotentOrderService service = new IdempotentOrderService(
+            new GoodOrderService(new EmailNotifier()), sentConfirmations, "email");
+        
+        Order order = new Order("customer@example.com", "+1234567890", "ORD-401");
+        // An upstream retry delivers the same order three times
+        service.processOrder(order);
+        service.processOrder(order);
+        service.processOrder(order);
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Streaming Orders with Backpressure
+// ============================================
+
+// Throughput and queue-depth counters for one pipeline stage
+class StageMetrics {
+    private final String name;
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final long startNanos = System.nanoTime();
+    
+    public StageMetrics(String name) {
+        this.name = name;
+    }
+    
+    void entered() {
+        depth.incrementAndGet();
+    }
+    
+    void left(boolean success) {
+        depth.decrementAndGet();
+        (success ? processed : failed).increment();
+    }
+    
+    public long getProcessed() {
+        return processed.sum();
+    }
+    
+    public long getFailed() {
+        return failed.sum();
+    }
+    
+    public int getDepth() {
+        return depth.get();
+    }
+    
+    public double getThroughputPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? getProcessed() / seconds : 0;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s: processed=%d failed=%d depth=%d throughput=%.0f/s",
+            name, getProcessed(), getFailed(), getDepth(), getThroughputPerSecond());
+    }
+}
+
+// Streams orders through GoodOrderService with at most maxInFlight orders in
+// progress. New orders are only requested from the source when a notification
+// finishes, so a slow Notifier slows the source down instead of filling the heap.
+// Intake depth counts orders accepted but still waiting for the executor to pick
+// them up; notification depth counts orders whose notification is being sent.
+class OrderStreamProcessor {
+    private final GoodOrderService service;
+    private final int maxInFlight;
+    private final Executor executor;
+    private final StageMetrics intake = new StageMetrics("intake");
+    private final StageMetrics notification = new StageMetrics("notification");
+    
+    public OrderStreamProcessor(GoodOrderService service, int maxInFlight) {
+        this(service, maxInFlight, Executors.newVirtualThreadPerTaskExecutor());
+    }
+    
+    public OrderStreamProcessor(GoodOrderService service, int maxInFlight, Executor executor) {
+        this.service = service;
+        this.maxInFlight = maxInFlight;
+        this.executor = executor;
+    }
+    
+    // Reactive source: demand is signalled through Flow.Subscription.request
+    public CompletableFuture<Void> process(Flow.Publisher<Order> orders) {
+        OrderSubscriber subscriber = new OrderSubscriber();
+        orders.subscribe(subscriber);
+        return subscriber.done;
+    }
+    
+    // Pull-based source: the caller's thread blocks while maxInFlight orders are in progress
+    public void process(Stream<Order> orders) {
+        Semaphore slots = new Semaphore(maxInFlight);
+        orders.forEach(order -> {
+            slots.acquireUninterruptibly();
+            intake.entered();
+            executor.execute(() -> {
+                try {
+                    deliver(order);
+                } finally {
+                    slots.release();
+                }
+            });
+        });
+        // Wait for the tail of the stream to drain
+        slots.acquireUninterruptibly(maxInFlight);
+    }
+    
+    public StageMetrics getIntakeMetrics() {
+        return intake;
+    }
+    
+    public StageMetrics getNotificationMetrics() {
+        return notification;
+    }
+    
+    private void deliver(Order order) {
+        intake.left(true);
+        notification.entered();
+        boolean success = false;
+        try {
+            service.processOrder(order);
+            success = true;
+        } catch (RuntimeException e) {
+            System.out.println("Failed to process order " + order.getOrderId() + ": " + e.getMessage());
+        } finally {
+            notification.left(success);
+        }
+    }
+    
+    private class OrderSubscriber implements Flow.Subscriber<Order> {
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong unsignalledDemand = new AtomicLong();
+        private volatile boolean upstreamComplete;
+        private volatile Flow.Subscription subscription;
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            request(maxInFlight);
+        }
+        
+        @Override
+        public void onNext(Order order) {
+            intake.entered();
+            inFlight.incrementAndGet();
+            executor.execute(() -> {
+                deliver(order);
+                // One order finished, so there is room for exactly one more
+                request(1);
+                if (inFlight.decrementAndGet() == 0 && upstreamComplete) {
+                    done.complete(null);
+                }
+            });
+        }
+        
+        // Flow.Subscription must not be called concurrently. Whichever worker finds
+        // no request in progress signals for everyone, including demand added while
+        // it was busy; the others just add to the count and leave.
+        private void request(long n) {
+            if (unsignalledDemand.getAndAdd(n) != 0) {
+                return;
+            }
+            long signalled = n;
+            while (true) {
+                subscription.request(signalled);
+                signalled = unsignalledDemand.addAndGet(-signalled);
+                if (signalled == 0) {
+                    return;
+                }
+            }
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+        
+        @Override
+        public void onComplete() {
+            upstreamComplete = true;
+            if (inFlight.get() == 0) {
+                done.complete(null);
+            }
+        }
+    }
+}
+
+class StreamingExample {
+    public void demonstrate() {
+        System.out.println("=== STREAMING ORDERS WITH BACKPRESSURE ===");
+        
+        OrderStreamProcessor processor = new OrderStreamProcessor(
+            new GoodOrderService(new SMSNotifier()), 2);
+        
+        // submit() blocks once the publisher's buffer is full - that is the backpressure
+        SubmissionPublisher<Order> publisher = new SubmissionPublisher<>();
+        CompletableFuture<Void> finished = processor.process(publisher);
+        for (int i = 1; i <= 5; i++) {
+            publisher.submit(new Order("customer@example.com", "+123456789" + i, "ORD-50" + i));
+        }
+        publisher.close();
+        finished.join();
+        
+        System.out.println(processor.getIntakeMetrics());
+        System.out.println(processor.getNotificationMetrics());
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Ring Buffer Handoff
+// ============================================
+
+// How a thread waits for the ring buffer to move on. Busy-spin has the lowest
+// latency but burns a core; parking is the opposite trade-off.
+interface WaitStrategy {
+    void idle(int attempt);
+}
+
+class BusySpinWaitStrategy implements WaitStrategy {
+    @Override
+    public void idle(int attempt) {
+        Thread.onSpinWait();
+    }
+}
+
+class YieldingWaitStrategy implements WaitStrategy {
+    @Override
+    public void idle(int attempt) {
+        if (attempt < 100) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+}
+
+class ParkingWaitStrategy implements WaitStrategy {
+    private final long parkNanos;
+    
+    public ParkingWaitStrategy(Duration park) {
+        this.parkNanos = park.toNanos();
+    }
+    
+    @Override
+    public void idle(int attempt) {
+        LockSupport.parkNanos(parkNanos);
+    }
+}
+
+// Disruptor-style handoff between order intake and notification workers.
+// Slots are allocated once and reused, so a send allocates nothing. There is a
+// single writer: send() must only be called from one thread at a time.
+// Every consumer sees every notification, so typically there is one consumer per
+// channel, each running on its own thread at its own pace.
+class RingBufferNotifier implements Notifier, AutoCloseable {
+    // Reusable slot - fields are overwritten each time the ring wraps around
+    private static final class NotificationSlot {
+        String recipient;
+        String message;
+    }
+    
+    private final NotificationSlot[] slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private final AtomicLong[] consumerSequences;
+    private final Thread[] consumerThreads;
+    private volatile boolean running = true;
+    private long nextSequence = 0;
+    private long cachedMinimumConsumed = -1;
+    
+    public RingBufferNotifier(int size, WaitStrategy waitStrategy, Notifier... consumers) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Ring buffer size must be a power of two");
+        }
+        this.slots = new NotificationSlot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new NotificationSlot();
+        }
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        this.consumerSequences = new AtomicLong[consumers.length];
+        this.consumerThreads = new Thread[consumers.length];
+        for (int i = 0; i < consumers.length; i++) {
+            AtomicLong sequence = new AtomicLong(-1);
+            Notifier consumer = consumers[i];
+            consumerSequences[i] = sequence;
+            consumerThreads[i] = new Thread(() -> consume(consumer, sequence),
+                "ring-consumer-" + consumer.getClass().getSimpleName());
+            consumerThreads[i].setDaemon(true);
+            consumerThreads[i].start();
+        }
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        long sequence = nextSequence++;
+        // Don't lap the slowest consumer - only re-read their positions when we might
+        long wrapPoint = sequence - slots.length;
+        int attempt = 0;
+        while (wrapPoint > cachedMinimumConsumed) {
+            cachedMinimumConsumed = minimumConsumed();
+            if (wrapPoint > cachedMinimumConsumed) {
+                waitStrategy.idle(attempt++);
+            }
+        }
+        NotificationSlot slot = slots[(int) sequence & mask];
+        slot.recipient = recipient;
+        slot.message = message;
+        // Release store publishes the slot contents to the consumers
+        cursor.lazySet(sequence);
+    }
+    
+    @Override
+    public void close() {
+        running = false;
+        for (Thread thread : consumerThreads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    private void consume(Notifier consumer, AtomicLong sequence) {
+        long next = sequence.get() + 1;
+        int attempt = 0;
+        while (true) {
+            long available = cursor.get();
+            if (available < next) {
+                if (!running && cursor.get() < next) {
+                    return;
+                }
+                waitStrategy.idle(attempt++);
+                continue;
+            }
+            attempt = 0;
+            // Handle everything published so far as one batch, then report progress once
+            for (; next <= available; next++) {
+                NotificationSlot slot = slots[(int) next & mask];
+                try {
+                    consumer.send(slot.recipient, slot.message);
+                } catch (RuntimeException e) {
+                    System.out.println("Notification to " + slot.recipient + " failed: " + e.getMessage());
+                }
+            }
+            sequence.lazySet(available);
+        }
+    }
+    
+    private long minimumConsumed() {
+        long minimum = Long.MAX_VALUE;
+        for (AtomicLong sequence : consumerSequences) {
+            minimum = Math.min(minimum, sequence.get());
+        }
+        return minimum;
+    }
+}
+
+class RingBufferExample {
+    public void demonstrate() {
+        System.out.println("=== RING BUFFER HANDOFF ===");
+        
+        // The order thread only writes into a preallocated slot; each channel
+        // picks the notification up on its own worker thread
+        try (RingBufferNotifier ringBuffer = new RingBufferNotifier(1024,
+                 new ParkingWaitStrategy(Duration.ofMillis(1)),
+                 new EmailNotifier(), new SMSNotifier())) {
+            GoodOrderService service = new GoodOrderService(ringBuffer);
+            service.processOrder(new Order("customer@example.com", "+1234567890", "ORD-601"));
+        }
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Instrumentation
+// ============================================
+
+// Log-linear latency histogram (HdrHistogram-style buckets, ~1.5% precision from
+// nanoseconds up to hours). Counts are striped by thread so concurrent recorders
+// mostly hit different cache lines; readers sum the stripes.
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int BUCKETS = indexOf(Long.MAX_VALUE) + 1;
+    // Gap between stripes so neighbouring stripes don't share cache lines
+    private static final int STRIPE_PADDING = 16;
+    
+    private final int stripeMask;
+    private final int stripeLength;
+    private final AtomicLongArray counts;
+    
+    public LatencyHistogram() {
+        int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+        this.stripeMask = stripes - 1;
+        this.stripeLength = BUCKETS + STRIPE_PADDING;
+        this.counts = new AtomicLongArray(stripes * stripeLength);
+    }
+    
+    public void record(long nanos) {
+        long thread = Thread.currentThread().threadId();
+        int stripe = (int) (thread ^ (thread >>> 16)) & stripeMask;
+        counts.getAndIncrement(stripe * stripeLength + indexOf(Math.max(nanos, 0)));
+    }
+    
+    // Sums all stripes into one plain array
+    public long[] snapshot() {
+        long[] merged = new long[BUCKETS];
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            int base = stripe * stripeLength;
+            for (int i = 0; i < BUCKETS; i++) {
+                merged[i] += counts.get(base + i);
+            }
+        }
+        return merged;
+    }
+    
+    // Value at the given percentile (0-100) of a snapshot, in nanoseconds
+    public static long percentile(long[] snapshot, double percentile) {
+        long total = 0;
+        for (long count : snapshot) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return highestValueAt(i);
+            }
+        }
+        return highestValueAt(snapshot.length - 1);
+    }
+    
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - (SUB_BUCKET_BITS - 1);
+        int top = (int) (value >>> shift);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (top - HALF_SUB_BUCKETS);
+    }
+    
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long top = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
+
+// Decorator that measures every call to the wrapped channel: a couple of LongAdder
+// increments and one striped histogram update per send. A batch is forwarded as a
+// batch and measured as one call.
+class InstrumentedNotifier implements Notifier {
+    private final Notifier delegate;
+    private final String channel;
+    private final LongAdder sends = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    
+    public InstrumentedNotifier(Notifier delegate, String channel) {
+        this.delegate = delegate;
+        this.channel = channel;
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        long start = System.nanoTime();
+        try {
+            delegate.send(recipient, message);
+        } catch (RuntimeException e) {
+            errors.increment();
+            throw e;
+        } finally {
+            latency.record(System.nanoTime() - start);
+            sends.increment();
+        }
+    }
+    
+    @Override
+    public void sendBatch(List<Notification> batch) {
+        long start = System.nanoTime();
+        try {
+            delegate.sendBatch(batch);
+        } catch (RuntimeException e) {
+            errors.increment();
+            throw e;
+        } finally {
+            latency.record(System.nanoTime() - start);
+            sends.increment();
+        }
+    }
+    
+    public String getChannel() {
+        return channel;
+    }
+    
+    public long getSendCount() {
+        return sends.sum();
+    }
+    
+    public long getErrorCount() {
+        return errors.sum();
+    }
+    
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+    
+    // Exposes the metrics as notifications:type=Notifier,channel=<channel>
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("notifications:type=Notifier,channel=" + ObjectName.quote(channel));
+            // A newer notifier for the same channel replaces the old one
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new NotifierMetricsMBean(this), name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register metrics for " + channel, e);
+        }
+    }
+    
+    public String report() {
+        long[] snapshot = latency.snapshot();
+        return String.format("%s: sends=%d errors=%d p50=%dus p99=%dus p99.9=%dus max=%dus",
+            channel, getSendCount(), getErrorCount(),
+            LatencyHistogram.percentile(snapshot, 50) / 1000,
+            LatencyHistogram.percentile(snapshot, 99) / 1000,
+            LatencyHistogram.percentile(snapshot, 99.9) / 1000,
+            LatencyHistogram.percentile(snapshot, 100) / 1000);
+    }
+}
+
+// Read-only JMX view of an InstrumentedNotifier. Written as a DynamicMBean because
+// standard MBean interfaces have to be public, which this single-file example can't offer.
+class NotifierMetricsMBean implements DynamicMBean {
+    private static final String[] ATTRIBUTES = {
+        "SendCount", "ErrorCount", "P50Micros", "P99Micros", "P999Micros", "MaxMicros"
+    };
+    
+    private final InstrumentedNotifier notifier;
+    
+    NotifierMetricsMBean(InstrumentedNotifier notifier) {
+        this.notifier = notifier;
+    }
+    
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        switch (attribute) {
+            case "SendCount": return notifier.getSendCount();
+            case "ErrorCount": return notifier.getErrorCount();
+            case "P50Micros": return percentileMicros(50);
+            case "P99Micros": return percentileMicros(99);
+            case "P999Micros": return percentileMicros(99.9);
+            case "MaxMicros": return percentileMicros(100);
+            default: throw new AttributeNotFoundException(attribute);
+        }
+    }
+    
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Unknown attributes are left out, as the DynamicMBean contract allows
+            }
+        }
+        return list;
+    }
+    
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Notifier metrics are read-only");
+    }
+    
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+    
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+    
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[ATTRIBUTES.length];
+        for (int i = 0; i < ATTRIBUTES.length; i++) {
+            attributes[i] = new MBeanAttributeInfo(ATTRIBUTES[i], "long", ATTRIBUTES[i], true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Metrics for the " + notifier.getChannel() + " channel",
+            attributes, null, null, null);
+    }
+    
+    private long percentileMicros(double percentile) {
+        return LatencyHistogram.percentile(notifier.getLatency().snapshot(), percentile) / 1000;
+    }
+}
+
+// Periodically writes a one-line report per channel
+class MetricsDumper implements AutoCloseable {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "notifier-metrics-dump");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    public MetricsDumper(PrintStream out, Duration interval, InstrumentedNotifier... notifiers) {
+        scheduler.scheduleAtFixedRate(() -> {
+            for (InstrumentedNotifier notifier : notifiers) {
+                out.println(notifier.report());
+            }
+        }, interval.toNanos(), interval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+    
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
+
+class InstrumentationExample {
+    public void demonstrate() {
+        System.out.println("=== INSTRUMENTATION ===");
+        
+        InstrumentedNotifier email = new InstrumentedNotifier(new EmailNotifier(), "email");
+        InstrumentedNotifier sms = new InstrumentedNotifier(new SMSNotifier(), "sms");
+        email.registerMBean();
+        sms.registerMBean();
+        
+        GoodOrderService service = new GoodOrderService(new MultiChannelNotifier(email, sms));
+        for (int i = 1; i <= 3; i++) {
+            service.processOrder(new Order("customer@example.com", "+1234567890", "ORD-70" + i));
+        }
+        
+        // Normally left running with a longer interval; here we just print once
+        System.out.println(email.report());
+        System.out.println(sms.report());
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// BENCHMARKING: Notifier Throughput
+// ============================================
+
+// Small benchmark harness for the notifier hierarchy. Run it with
+// `java NotifierBenchmark` after compiling this file.
+// This repository has no build, so there is no JMH module to hang a suite off;
+// instead each scenario gets a timed warm-up followed by a timed measurement,
+// on one thread and on every core. Everything writes to a no-op OutputSink so
+// the numbers reflect the notifiers, not the console - a swapped System.out would
+// still serialize every thread on PrintStream's lock.
+class NotifierBenchmark {
+    private static final OutputSink NO_OP_SINK = line -> { };
+    
+    private final Duration warmup;
+    private final Duration measurement;
+    
+    public NotifierBenchmark(Duration warmup, Duration measurement) {
+        this.warmup = warmup;
+        this.measurement = measurement;
+    }
+    
+    public static void main(String[] args) {
+        new NotifierBenchmark(Duration.ofSeconds(1), Duration.ofSeconds(2)).runAll();
+    }
+    
+    public void runAll() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        Order order = new Order("customer@example.com", "+1234567890", "ORD-BENCH");
+        List<String> results = new ArrayList<>();
+        
+        int[] threadCounts = cores > 1 ? new int[] {1, cores} : new int[] {1};
+        for (int threads : threadCounts) {
+            Notifier email = new EmailNotifier(NO_OP_SINK);
+            results.add(run("email.send", threads, () -> email.send("customer@example.com", "Order confirmed")));
+            
+            for (int channels = 1; channels <= 16; channels *= 2) {
+                Notifier[] notifiers = new Notifier[channels];
+                for (int i = 0; i < channels; i++) {
+                    notifiers[i] = new EmailNotifier(NO_OP_SINK);
+                }
+                Notifier fanOut = new MultiChannelNotifier(notifiers);
+                results.add(run("fan-out x" + channels, threads,
+                    () -> fanOut.send("customer@example.com", "Order confirmed")));
+            }
+            
+            Notifier chain = new InstrumentedNotifier(
+                new CircuitBreakerNotifier(
+                    new BulkheadNotifier(new EmailNotifier(NO_OP_SINK), 1024, Duration.ZERO),
+                    5, Duration.ofSeconds(1), Duration.ofSeconds(10)),
+                "email");
+            results.add(run("decorator chain", threads, () -> chain.send("customer@example.com", "Order confirmed")));
+            
+            Notifier orderEmail = new EmailNotifier(NO_OP_SINK);
+            GoodOrderService service = new GoodOrderService(orderEmail, new AsyncNotifierAdapter(orderEmail), NO_OP_SINK);
+            results.add(run("processOrder", threads, () -> service.processOrder(order)));
+        }
+        
+        System.out.println(String.format("%-20s %8s %15s %10s", "scenario", "threads", "ops/s", "ns/op"));
+        for (String result : results) {
+            System.out.println(result);
+        }
+    }
+    
+    private String run(String scenario, int threads, Runnable operation) {
+        measure(threads, operation, warmup);
+        long operations = measure(threads, operation, measurement);
+        double opsPerSecond = operations / (measurement.toNanos() / 1e9);
+        // Per-thread cost: wall time of one thread divided by what it completed
+        double nanosPerOp = measurement.toNanos() * (double) threads / Math.max(operations, 1);
+        return String.format("%-20s %8d %,15.0f %10.1f", scenario, threads, opsPerSecond, nanosPerOp);
+    }
+    
+    private static long measure(int threads, Runnable operation, Duration duration) {
+        LongAdder operations = new LongAdder();
+        Thread[] workers = new Thread[threads];
+        long deadline = System.nanoTime() + duration.toNanos();
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                long count = 0;
+                // Check the clock every 256 calls so timing doesn't dominate cheap operations
+                while ((count & 0xFF) != 0 || System.nanoTime() < deadline) {
+                    operation.run();
+                    count++;
+                }
+                operations.add(count);
+            });
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return operations.sum();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Output Sinks
+// ============================================
+
+// Where the concrete senders and notifiers write their output. The default is the
+// console; a high-volume deployment plugs in a buffered file sink instead.
+interface OutputSink {
+    // Looks System.out up on every call, so System.setOut still redirects it
+    OutputSink CONSOLE = line -> System.out.println(line);
+    
+    // The line may be a pooled buffer (see MessageTemplate.printTo) - sinks must not keep it
+    void println(CharSequence line);
+    
+    default void flush() {
+    }
+}
+
+// Buffered sink on an NIO FileChannel. Lines are appended to one of a few striped
+// buffers (chosen by thread, the same way LatencyHistogram stripes its counters),
+// so writers rarely meet on the same lock and nothing is flushed per line. A
+// background thread swaps out the filled buffers and writes them all with one
+// gathering write. Striping instead of a ThreadLocal keeps the number of buffers
+// fixed even when the callers are millions of short-lived virtual threads.
+class BufferedFileChannelSink implements OutputSink, AutoCloseable {
+    private static final class Stripe {
+        ByteBuffer buffer;
+        
+        Stripe(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+    
+    private final FileChannel channel;
+    private final int bufferSize;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final ConcurrentLinkedQueue<ByteBuffer> filled = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<ByteBuffer> spares = new ConcurrentLinkedQueue<>();
+    // Left over from a failed write; written first next time (guarded by this)
+    private final ArrayDeque<ByteBuffer> unwritten = new ArrayDeque<>();
+    private final ScheduledExecutorService flusher;
+    
+    public BufferedFileChannelSink(Path file, int bufferSize, Duration flushInterval) throws IOException {
+        this.channel = FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.bufferSize = bufferSize;
+        int count = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(ByteBuffer.allocateDirect(bufferSize));
+        }
+        this.stripeMask = count - 1;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "output-sink-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushInBackground,
+            flushInterval.toNanos(), flushInterval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+    
+    @Override
+    public void println(CharSequence line) {
+        // Worst case for UTF-8 is three bytes per char, plus the newline
+        int maxBytes = line.length() * 3 + 1;
+        if (maxBytes > bufferSize) {
+            filled.add(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+            return;
+        }
+        long thread = Thread.currentThread().threadId();
+        Stripe stripe = stripes[(int) (thread ^ (thread >>> 16)) & stripeMask];
+        synchronized (stripe) {
+            if (stripe.buffer.remaining() < maxBytes) {
+                // Hand the full buffer to the flusher and carry on with a fresh one
+                filled.add(stripe.buffer.flip());
+                stripe.buffer = takeSpare();
+            }
+            // Encoded straight from the caller's chars - no intermediate String or byte[]
+            MessageTemplate.encodeUtf8(line, stripe.buffer);
+            stripe.buffer.put((byte) '\n');
+        }
+    }
+    
+    // Writes everything buffered so far; called periodically by the flusher thread
+    @Override
+    public synchronized void flush() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                if (stripe.buffer.position() > 0) {
+                    filled.add(stripe.buffer.flip());
+                    stripe.buffer = takeSpare();
+                }
+            }
+        }
+        
+        List<ByteBuffer> batch = new ArrayList<>(unwritten);
+        unwritten.clear();
+        for (ByteBuffer buffer = filled.poll(); buffer != null; buffer = filled.poll()) {
+            batch.add(buffer);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        
+        ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+        try {
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write notifier output", e);
+        } finally {
+            for (ByteBuffer buffer : buffers) {
+                if (buffer.hasRemaining()) {
+                    // Not written: keep it, in order, for the next attempt
+                    unwritten.add(buffer);
+                } else if (buffer.isDirect() && buffer.capacity() == bufferSize) {
+                    spares.add(buffer.clear());
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        // Let a running flush finish: interrupting it inside channel.write would
+        // close the FileChannel and lose what it was writing
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+    
+    // An exception would cancel the periodic task; the data stays queued instead
+    // and the flush in close() reports the error if it persists
+    private void flushInBackground() {
+        try {
+            flush();
+        } catch (UncheckedIOException e) {
+            // Retried on the next tick
+        }
+    }
+    
+    private ByteBuffer takeSpare() {
+        ByteBuffer spare = spares.poll();
+        return spare != null ? spare : ByteBuffer.allocateDirect(bufferSize);
+    }
+}
+
+class OutputSinkExample {
+    public void demonstrate() {
+        System.out.println("=== OUTPUT SINKS ===");
+        
+        try {
+            Path file = Files.createTempFile("notifications", ".log");
+            try (BufferedFileChannelSink sink = new BufferedFileChannelSink(file, 64 * 1024, Duration.ofMillis(100))) {
+                Notifier email = new EmailNotifier(sink);
+                for (int i = 1; i <= 1000; i++) {
+                    email.send("customer" + i + "@example.com", "Order confirmed");
+                }
+            }
+            System.out.println("Wrote " + Files.readAllLines(file).size() + " lines to " + file);
+        } catch (IOException e) {
+            System.out.println("Output sink unavailable: " + e.getMessage());
+        }
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Message Templates
+// ============================================
+
+// Template such as "Order {orderId} confirmed", parsed once into literal parts and
+// placeholders. Placeholders are filled in the order they appear in the template.
+//
+// renderTo() appends into a StringBuilder the caller supplies. printTo() and the
+// ByteBuffer renderTo() borrow a builder from a small striped pool (picked by
+// thread, like the other striped structures here) and hand it back afterwards, so
+// the hot path creates no intermediate strings. A pool rather than a ThreadLocal
+// keeps that true for callers on a fresh virtual thread per send.
+class MessageTemplate {
+    private static final int MAX_POOLED_CAPACITY = 8 * 1024;
+    private static final AtomicReferenceArray<StringBuilder> POOL =
+        new AtomicReferenceArray<>(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) * 2);
+    
+    private final String[] literals;
+    private final String[] placeholders;
+    
+    private MessageTemplate(String[] literals, String[] placeholders) {
+        this.literals = literals;
+        this.placeholders = placeholders;
+    }
+    
+    // Literal text is literals[0] + value0 + literals[1] + value1 + ... + literals[n]
+    public static MessageTemplate compile(String template) {
+        List<String> literals = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        int position = 0;
+        while (true) {
+            int open = template.indexOf('{', position);
+            if (open < 0) {
+                break;
+            }
+            int close = template.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder in template: " + template);
+            }
+            literals.add(template.substring(position, open));
+            placeholders.add(template.substring(open + 1, close));
+            position = close + 1;
+        }
+        literals.add(template.substring(position));
+        return new MessageTemplate(literals.toArray(new String[0]), placeholders.toArray(new String[0]));
+    }
+    
+    public List<String> getPlaceholders() {
+        return List.of(placeholders);
+    }
+    
+    public String render(CharSequence... values) {
+        return renderTo(new StringBuilder(), values).toString();
+    }
+    
+    // Fixed-arity overloads so the hot path doesn't allocate a varargs array
+    public StringBuilder renderTo(StringBuilder target, CharSequence value) {
+        checkArity(1);
+        return target.append(literals[0]).append(value).append(literals[1]);
+    }
+    
+    public StringBuilder renderTo(StringBuilder target, CharSequence first, CharSequence second) {
+        checkArity(2);
+        return target.append(literals[0]).append(first).append(literals[1]).append(second).append(literals[2]);
+    }
+    
+    public StringBuilder renderTo(StringBuilder target, CharSequence... values) {
+        checkArity(values.length);
+        for (int i = 0; i < values.length; i++) {
+            target.append(literals[i]).append(values[i]);
+        }
+        return target.append(literals[values.length]);
+    }
+    
+    // Renders into a pooled builder and prints it; sinks don't keep the line
+    public void printTo(OutputSink out, CharSequence value) {
+        StringBuilder line = borrow();
+        try {
+            out.println(renderTo(line, value));
+        } finally {
+            giveBack(line);
+        }
+    }
+    
+    public void printTo(OutputSink out, CharSequence first, CharSequence second) {
+        StringBuilder line = borrow();
+        try {
+            out.println(renderTo(line, first, second));
+        } finally {
+            giveBack(line);
+        }
+    }
+    
+    public void printTo(OutputSink out, CharSequence... values) {
+        StringBuilder line = borrow();
+        try {
+            out.println(renderTo(line, values));
+        } finally {
+            giveBack(line);
+        }
+    }
+    
+    // Renders and UTF-8 encodes straight into the target buffer
+    public void renderTo(ByteBuffer target, CharSequence... values) {
+        StringBuilder text = borrow();
+        try {
+            encodeUtf8(renderTo(text, values), target);
+        } finally {
+            giveBack(text);
+        }
+    }
+    
+    // UTF-8 encoder that works on any CharSequence without a CharBuffer or byte[] copy.
+    // The caller makes sure there is room (at most three bytes per char).
+    static void encodeUtf8(CharSequence text, ByteBuffer target) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                target.put((byte) c);
+            } else if (c < 0x800) {
+                target.put((byte) (0xC0 | (c >> 6)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                target.put((byte) (0xF0 | (codePoint >> 18)));
+                target.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                target.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate - same replacement String.getBytes would use
+                target.put((byte) '?');
+            } else {
+                target.put((byte) (0xE0 | (c >> 12)));
+                target.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+    
+    private void checkArity(int values) {
+        if (values != placeholders.length) {
+            throw new IllegalArgumentException("Template expects " + placeholders.length
+                + " values " + List.of(placeholders) + " but got " + values);
+        }
+    }
+    
+    // Takes any pooled builder, starting at this thread's stripe; a new one only
+    // if every slot is empty
+    private static StringBuilder borrow() {
+        long thread = Thread.currentThread().threadId();
+        int start = (int) (thread ^ (thread >>> 16));
+        int mask = POOL.length() - 1;
+        for (int i = 0; i <= mask; i++) {
+            int slot = (start + i) & mask;
+            StringBuilder builder = POOL.get(slot);
+            if (builder != null && POOL.compareAndSet(slot, builder, null)) {
+                return builder;
+            }
+        }
+        return new StringBuilder(256);
+    }
+    
+    private static void giveBack(StringBuilder builder) {
+        if (builder.capacity() > MAX_POOLED_CAPACITY) {
+            return;
+        }
+        builder.setLength(0);
+        long thread = Thread.currentThread().threadId();
+        int start = (int) (thread ^ (thread >>> 16));
+        int mask = POOL.length() - 1;
+        for (int i = 0; i <= mask; i++) {
+            if (POOL.compareAndSet((start + i) & mask, null, builder)) {
+                return;
+            }
+        }
+    }
+}
+
+class TemplateExample {
+    public void demonstrate() {
+        System.out.println("=== MESSAGE TEMPLATES ===");
+        
+        // Compiled once, rendered many times
+        MessageTemplate confirmation = MessageTemplate.compile("Order {orderId} confirmed for {customer}");
+        Order order = new Order("customer@example.com", "+1234567890", "ORD-801");
+        
+        System.out.println(confirmation.render(order.getOrderId(), order.getCustomerEmail()));
+        
+        ByteBuffer wire = ByteBuffer.allocate(128);
+        confirmation.renderTo(wire, order.getOrderId(), "Zoë");
+        System.out.println("Encoded " + wire.position() + " bytes for the wire");
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Scheduled Notifications
+// ============================================
+
+// Delayed notifications ("remind me in 24h") on a hierarchical timing wheel.
+// Each level has 64 slots; a slot on level L covers 64^L ticks. Scheduling and
+// cancelling just link or unlink an entry in a slot's list - O(1) no matter how
+// many timers are pending, unlike the O(log n) heap in ScheduledThreadPoolExecutor.
+// When the lowest wheel wraps, the next slot of the level above is cascaded down.
+// Everything due on a tick goes to the notifier as one sendBatch call.
+class ScheduledNotificationService implements AutoCloseable {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = 1L << (SLOT_BITS * LEVELS);
+    
+    // Pending timer; also a node in its slot's circular doubly-linked list
+    private static final class TimerEntry {
+        final long id;
+        final long deadlineMillis;
+        final String recipient;
+        final String message;
+        long tick;
+        TimerEntry previous;
+        TimerEntry next;
+        
+        TimerEntry(long id, long deadlineMillis, String recipient, String message) {
+            this.id = id;
+            this.deadlineMillis = deadlineMillis;
+            this.recipient = recipient;
+            this.message = message;
+        }
+        
+        void unlink() {
+            previous.next = next;
+            next.previous = previous;
+            previous = null;
+            next = null;
+        }
+    }
+    
+    private final Notifier notifier;
+    private final long tickMillis;
+    private final long startMillis;
+    // Sentinel heads, indexed [level][slot]
+    private final TimerEntry[][] wheels = new TimerEntry[LEVELS][SLOTS];
+    private final Map<Long, TimerEntry> pending = new HashMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final ScheduledExecutorService ticker;
+    // Next tick to be processed
+    private long currentTick = 0;
+    
+    public ScheduledNotificationService(Notifier notifier, Duration tick) {
+        this.notifier = notifier;
+        this.tickMillis = Math.max(tick.toMillis(), 1);
+        this.startMillis = System.currentTimeMillis();
+        for (TimerEntry[] wheel : wheels) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                TimerEntry head = new TimerEntry(0, 0, null, null);
+                head.previous = head;
+                head.next = head;
+                wheel[slot] = head;
+            }
+        }
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notification-timing-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    // Returns an id that can be passed to cancel()
+    public long schedule(String recipient, String message, Duration delay) {
+        return scheduleAt(nextId.getAndIncrement(), System.currentTimeMillis() + delay.toMillis(), recipient, message);
+    }
+    
+    public synchronized boolean cancel(long id) {
+        TimerEntry entry = pending.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        entry.unlink();
+        return true;
+    }
+    
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+    
+    // Writes every pending timer with its absolute deadline, so they survive a restart
+    public synchronized void saveTo(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(pending.size());
+            for (TimerEntry entry : pending.values()) {
+                out.writeLong(entry.id);
+                out.writeLong(entry.deadlineMillis);
+                out.writeUTF(entry.recipient);
+                out.writeUTF(entry.message);
+            }
+        }
+    }
+    
+    // Re-schedules timers written by saveTo; any that fell due while we were down fire on the next tick
+    public void restoreFrom(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                long deadlineMillis = in.readLong();
+                String recipient = in.readUTF();
+                String message = in.readUTF();
+                nextId.accumulateAndGet(id + 1, Math::max);
+                scheduleAt(id, deadlineMillis, recipient, message);
+            }
+        }
+    }
+    
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+    
+    private synchronized long scheduleAt(long id, long deadlineMillis, String recipient, String message) {
+        TimerEntry entry = new TimerEntry(id, deadlineMillis, recipient, message);
+        // Round up so a timer never fires early
+        entry.tick = Math.floorDiv(deadlineMillis - startMillis + tickMillis - 1, tickMillis);
+        pending.put(id, entry);
+        insert(entry);
+        return id;
+    }
+    
+    private void insert(TimerEntry entry) {
+        long tick = Math.max(entry.tick, currentTick);
+        long delta = tick - currentTick;
+        if (delta >= MAX_DELTA) {
+            // Beyond the wheel's range: park it in the furthest slot, it is re-placed on cascade
+            tick = currentTick + MAX_DELTA - 1;
+            delta = MAX_DELTA - 1;
+        }
+        int level = 0;
+        while (delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK;
+        TimerEntry head = wheels[level][slot];
+        entry.previous = head.previous;
+        entry.next = head;
+        head.previous.next = entry;
+        head.previous = entry;
+    }
+    
+    // Runs on the ticker thread; catches up if it fell behind
+    private void advance() {
+        List<Notification> due = new ArrayList<>();
+        synchronized (this) {
+            long targetTick = (System.currentTimeMillis() - startMillis) / tickMillis;
+            while (currentTick <= targetTick) {
+                int index = (int) currentTick & SLOT_MASK;
+                if (index == 0) {
+                    // Lowest wheel wrapped: pull the next slot of each higher level down
+                    for (int level = 1; level < LEVELS; level++) {
+                        int slot = (int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK;
+                        cascade(wheels[level][slot]);
+                        if (slot != 0) {
+                            break;
+                        }
+                    }
+                }
+                TimerEntry head = wheels[0][index];
+                while (head.next != head) {
+                    TimerEntry entry = head.next;
+                    entry.unlink();
+                    pending.remove(entry.id);
+                    due.add(new Notification(entry.recipient, entry.message));
+                }
+                currentTick++;
+            }
+        }
+        if (!due.isEmpty()) {
+            try {
+                notifier.sendBatch(due);
+            } catch (RuntimeException e) {
+                System.out.println("Scheduled delivery of " + due.size() + " notifications failed: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void cascade(TimerEntry head) {
+        while (head.next != head) {
+            TimerEntry entry = head.next;
+            entry.unlink();
+            insert(entry);
+        }
+    }
+}
+
+class ScheduledNotificationExample {
+    public void demonstrate() {
+        System.out.println("=== SCHEDULED NOTIFICATIONS ===");
+        
+        // A real deployment would tick every second and schedule reminders 24h out
+        try (ScheduledNotificationService scheduler =
+                 new ScheduledNotificationService(new EmailNotifier(), Duration.ofMillis(10))) {
+            scheduler.schedule("customer@example.com", "How was your order ORD-901?", Duration.ofMillis(50));
+            long cancelled = scheduler.schedule("customer@example.com", "Your cart misses you", Duration.ofMillis(50));
+            scheduler.cancel(cancelled);
+            
+            Thread.sleep(200);
+            System.out.println("Still pending: " + scheduler.getPendingCount());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Retries with Backoff
+// ============================================
+
+// Caps retries to a fraction of normal traffic. Every first attempt deposits
+// `ratio` of a token, every retry withdraws one, so during an outage retries add
+// at most ratio x the normal load instead of multiplying it.
+class RetryBudget {
+    private static final long SCALE = 1000;
+    
+    private final long depositPerRequest;
+    private final long maxBalance;
+    private final AtomicLong balance;
+    
+    public RetryBudget(double ratio, int minRetries) {
+        this.depositPerRequest = (long) (ratio * SCALE);
+        this.maxBalance = Math.max(minRetries, 10) * SCALE;
+        this.balance = new AtomicLong(minRetries * SCALE);
+    }
+    
+    public void recordRequest() {
+        balance.accumulateAndGet(depositPerRequest, (current, deposit) -> Math.min(current + deposit, maxBalance));
+    }
+    
+    public boolean tryWithdraw() {
+        while (true) {
+            long current = balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+}
+
+// Retries failed sends with exponential backoff and full jitter
+// (delay = random(0, min(maxDelay, baseDelay * 2^attempt))). Retries are
+// scheduled on CompletableFuture's shared delay timer and run on virtual
+// threads, so nobody sleeps while waiting for the next attempt.
+//
+// send() makes the first attempt on the caller's thread. If it fails and the
+// budget allows, the remaining attempts happen in the background and send()
+// returns normally; sendAsync() lets the caller see the final outcome.
+class RetryingNotifier implements Notifier, AsyncNotifier {
+    private static final Executor VIRTUAL_THREADS = Executors.newVirtualThreadPerTaskExecutor();
+    
+    private final Notifier delegate;
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private final RetryBudget budget;
+    
+    public RetryingNotifier(Notifier delegate, int maxAttempts, Duration baseDelay, Duration maxDelay, RetryBudget budget) {
+        this.delegate = delegate;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayNanos = baseDelay.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.budget = budget;
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        budget.recordRequest();
+        try {
+            delegate.send(recipient, message);
+        } catch (RuntimeException e) {
+            if (maxAttempts < 2 || !budget.tryWithdraw()) {
+                throw e;
+            }
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            scheduleRetry(recipient, message, 1, result);
+            result.whenComplete((ignored, failure) -> {
+                if (failure != null) {
+                    System.out.println("Giving up on notification to " + recipient + ": " + failure.getMessage());
+                }
+            });
+        }
+    }
+    
+    @Override
+    public CompletableFuture<Void> sendAsync(String recipient, String message) {
+        budget.recordRequest();
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        VIRTUAL_THREADS.execute(() -> attempt(recipient, message, 0, result));
+        return result;
+    }
+    
+    private void attempt(String recipient, String message, int attempt, CompletableFuture<Void> result) {
+        try {
+            delegate.send(recipient, message);
+            result.complete(null);
+        } catch (RuntimeException e) {
+            if (attempt + 1 >= maxAttempts || !budget.tryWithdraw()) {
+                result.completeExceptionally(e);
+            } else {
+                scheduleRetry(recipient, message, attempt + 1, result);
+            }
+        }
+    }
+    
+    private void scheduleRetry(String recipient, String message, int attempt, CompletableFuture<Void> result) {
+        // baseDelay * 2^(attempt - 1), saturating instead of overflowing into a negative delay
+        int shift = Math.min(attempt - 1, 62);
+        long ceiling = baseDelayNanos > (Long.MAX_VALUE >> shift)
+            ? maxDelayNanos
+            : Math.min(maxDelayNanos, baseDelayNanos << shift);
+        long delay = ThreadLocalRandom.current().nextLong(Math.max(ceiling, 1));
+        Executor later = CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, VIRTUAL_THREADS);
+        later.execute(() -> attempt(recipient, message, attempt, result));
+    }
+}
+
+class RetryExample {
+    public void demonstrate() {
+        System.out.println("=== RETRIES WITH BACKOFF ===");
+        
+        // An SMS gateway that fails the first two times
+        AtomicInteger calls = new AtomicInteger();
+        Notifier flakySms = (recipient, message) -> {
+            if (calls.incrementAndGet() <= 2) {
+                throw new IllegalStateException("SMS gateway timeout");
+            }
+            new SMSNotifier().send(recipient, message);
+        };
+        
+        RetryingNotifier retrying = new RetryingNotifier(flakySms, 5,
+            Duration.ofMillis(10), Duration.ofSeconds(1), new RetryBudget(0.1, 10));
+        retrying.sendAsync("+1234567890", "Order confirmed").join();
+        System.out.println("Delivered after " + calls.get() + " attempts");
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Priority Lanes
+// ============================================
+
+enum NotificationPriority { TRANSACTIONAL, OPERATIONAL, BULK }
+
+// Dispatches notifications from separate lanes so a marketing blast can't sit in
+// front of order confirmations. Workers serve lanes by weighted round-robin
+// (e.g. 8:3:1). On top of that, once per round of the schedule the lane whose
+// oldest message has waited longest past maxWait gets one extra pick, so bulk
+// traffic is never starved outright - but a saturated bulk lane, whose head is
+// always overdue, can't take every pick either.
+// Callers pick a lane through forLane(), which is just another Notifier.
+// close() stops intake and delivers everything still queued before returning.
+class PriorityDispatchingNotifier implements AutoCloseable {
+    private static final class PendingSend {
+        final int lane;
+        final String recipient;
+        final String message;
+        final long enqueuedNanos = System.nanoTime();
+        
+        PendingSend(int lane, String recipient, String message) {
+            this.lane = lane;
+            this.recipient = recipient;
+            this.message = message;
+        }
+    }
+    
+    private final Notifier delegate;
+    private final NotificationPriority[] lanesByPriority = NotificationPriority.values();
+    private final ConcurrentLinkedQueue<PendingSend>[] lanes;
+    private final Semaphore[] laneCapacity;
+    private final Semaphore queued = new Semaphore(0);
+    private final NotificationPriority[] schedule;
+    private final AtomicInteger scheduleCursor = new AtomicInteger();
+    private final AtomicInteger picksSinceRelief = new AtomicInteger();
+    // enqueue() calls between their closed check and their add; close() waits them out
+    private final AtomicInteger enqueuing = new AtomicInteger();
+    private final long maxWaitNanos;
+    private final Thread[] workers;
+    private volatile boolean running = true;
+    
+    // weights and capacities are indexed by NotificationPriority ordinal
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public PriorityDispatchingNotifier(Notifier delegate, int[] weights, int[] capacities,
+                                       Duration maxWait, int workerThreads) {
+        if (weights.length != lanesByPriority.length || capacities.length != lanesByPriority.length) {
+            throw new IllegalArgumentException("Need one weight and one capacity per lane");
+        }
+        for (int weight : weights) {
+            if (weight < 1) {
+                throw new IllegalArgumentException("Lane weights must be at least 1");
+            }
+        }
+        this.delegate = delegate;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.lanes = new ConcurrentLinkedQueue[lanesByPriority.length];
+        this.laneCapacity = new Semaphore[lanesByPriority.length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ConcurrentLinkedQueue<>();
+            laneCapacity[i] = new Semaphore(capacities[i]);
+        }
+        this.schedule = smoothWeightedSchedule(weights);
+        this.workers = new Thread[workerThreads];
+        for (int i = 0; i < workerThreads; i++) {
+            workers[i] = new Thread(this::work, "priority-dispatcher-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+    
+    public Notifier forLane(NotificationPriority priority) {
+        return (recipient, message) -> enqueue(priority, recipient, message);
+    }
+    
+    public int getQueuedCount(NotificationPriority priority) {
+        return lanes[priority.ordinal()].size();
+    }
+    
+    @Override
+    public void close() {
+        running = false;
+        // Wake idle workers; each exits once every lane is empty
+        queued.release(workers.length);
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        // An enqueue that saw running == true is about to add; it's only a few instructions away
+        while (enqueuing.get() > 0) {
+            Thread.onSpinWait();
+        }
+        // Anything that slipped in while the workers were finishing
+        for (PendingSend next = pollNext(); next != null; next = pollNext()) {
+            deliver(next);
+        }
+    }
+    
+    private void enqueue(NotificationPriority priority, String recipient, String message) {
+        enqueuing.incrementAndGet();
+        try {
+            if (!running) {
+                throw new RejectedExecutionException("Dispatcher is closed");
+            }
+            int lane = priority.ordinal();
+            // A full lane sheds its own traffic instead of growing without bound
+            if (!laneCapacity[lane].tryAcquire()) {
+                throw new RejectedExecutionException(priority + " lane is full");
+            }
+            lanes[lane].add(new PendingSend(lane, recipient, message));
+            queued.release();
+        } finally {
+            enqueuing.decrementAndGet();
+        }
+    }
+    
+    private void work() {
+        while (true) {
+            try {
+                queued.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            // A permit normally means a message is waiting; after close() it may just be
+            // a wake-up. Either way an empty poll goes back to sleeping on the semaphore.
+            PendingSend next = pollNext();
+            if (next == null) {
+                if (!running) {
+                    return;
+                }
+                continue;
+            }
+            deliver(next);
+        }
+    }
+    
+    // Next message in schedule order, or null once every lane is empty
+    private PendingSend pollNext() {
+        while (true) {
+            int lane = pickLane();
+            PendingSend next = lanes[lane].poll();
+            if (next != null) {
+                laneCapacity[lane].release();
+                return next;
+            }
+            boolean empty = true;
+            for (ConcurrentLinkedQueue<PendingSend> queue : lanes) {
+                empty &= queue.isEmpty();
+            }
+            if (empty) {
+                return null;
+            }
+        }
+    }
+    
+    private void deliver(PendingSend next) {
+        try {
+            delegate.send(next.recipient, next.message);
+        } catch (RuntimeException e) {
+            System.out.println(lanesByPriority[next.lane] + " notification to " + next.recipient
+                + " failed: " + e.getMessage());
+        }
+    }
+    
+    private int pickLane() {
+        // Starvation protection, bounded: once per round of the schedule the
+        // longest-waiting overdue lane gets an extra pick
+        if (picksSinceRelief.incrementAndGet() >= schedule.length) {
+            long now = System.nanoTime();
+            int overdue = -1;
+            long oldest = Long.MAX_VALUE;
+            for (int i = 0; i < lanes.length; i++) {
+                PendingSend head = lanes[i].peek();
+                if (head != null && now - head.enqueuedNanos > maxWaitNanos && head.enqueuedNanos < oldest) {
+                    overdue = i;
+                    oldest = head.enqueuedNanos;
+                }
+            }
+            if (overdue >= 0) {
+                picksSinceRelief.set(0);
+                return overdue;
+            }
+        }
+        // Weighted round-robin, skipping empty lanes
+        for (int i = 0; i < schedule.length; i++) {
+            int lane = schedule[Math.floorMod(scheduleCursor.getAndIncrement(), schedule.length)].ordinal();
+            if (!lanes[lane].isEmpty()) {
+                return lane;
+            }
+        }
+        return NotificationPriority.TRANSACTIONAL.ordinal();
+    }
+    
+    // Interleaves lanes by weight (8:3:1 gives T T O T T T O T T O T B, not T x8 then O x3)
+    private NotificationPriority[] smoothWeightedSchedule(int[] weights) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        NotificationPriority[] order = new NotificationPriority[total];
+        int[] current = new int[weights.length];
+        for (int slot = 0; slot < total; slot++) {
+            int best = 0;
+            for (int i = 0; i < weights.length; i++) {
+                current[i] += weights[i];
+                if (current[i] > current[best]) {
+                    best = i;
+                }
+            }
+            current[best] -= total;
+            order[slot] = lanesByPriority[best];
+        }
+        return order;
+    }
+}
+
+class PriorityLaneExample {
+    public void demonstrate() {
+        System.out.println("=== PRIORITY LANES ===");
+        
+        try (PriorityDispatchingNotifier dispatcher = new PriorityDispatchingNotifier(
+                 new EmailNotifier(),
+                 new int[] {8, 3, 1},
+                 new int[] {10_000, 10_000, 100_000},
+                 Duration.ofSeconds(5),
+                 1)) {
+            Notifier marketing = dispatcher.forLane(NotificationPriority.BULK);
+            for (int i = 1; i <= 3; i++) {
+                marketing.send("subscriber" + i + "@example.com", "Flash sale!");
+            }
+            
+            // Confirmations jump ahead of whatever bulk mail is still queued
+            GoodOrderService service = new GoodOrderService(dispatcher.forLane(NotificationPriority.TRANSACTIONAL));
+            service.processOrder(new Order("customer@example.com", "+1234567890", "ORD-1001"));
+        }
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Per-Recipient Ordering
+// ============================================
+
+// Sends to different recipients in parallel while keeping each recipient's
+// messages in order ("order confirmed" always before "order shipped").
+// Every recipient with messages in flight has a lane: a queue drained by at most
+// one task at a time. Lanes are created on first use and removed as soon as they
+// are empty, so an idle recipient costs nothing - no thread or queue per customer.
+class KeyedOrderedNotifier implements Notifier {
+    private static final class Lane {
+        final ConcurrentLinkedQueue<String> messages = new ConcurrentLinkedQueue<>();
+        // Only changed inside ConcurrentHashMap.compute for this lane's key
+        int pending;
+    }
+    
+    private final Notifier delegate;
+    private final Executor executor;
+    private final ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    
+    public KeyedOrderedNotifier(Notifier delegate) {
+        this(delegate, Executors.newVirtualThreadPerTaskExecutor());
+    }
+    
+    public KeyedOrderedNotifier(Notifier delegate, Executor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        boolean[] startDrain = new boolean[1];
+        Lane lane = lanes.compute(recipient, (key, existing) -> {
+            Lane current = existing != null ? existing : new Lane();
+            current.messages.add(message);
+            // First message into an idle lane: nobody is draining it yet
+            startDrain[0] = current.pending++ == 0;
+            return current;
+        });
+        if (startDrain[0]) {
+            executor.execute(() -> drain(recipient, lane));
+        }
+    }
+    
+    // Recipients that currently have messages queued or in flight
+    public int getActiveLaneCount() {
+        return lanes.size();
+    }
+    
+    private void drain(String recipient, Lane lane) {
+        boolean more = true;
+        while (more) {
+            int sent = 0;
+            for (String message = lane.messages.poll(); message != null; message = lane.messages.poll()) {
+                try {
+                    delegate.send(recipient, message);
+                } catch (RuntimeException e) {
+                    System.out.println("Notification to " + recipient + " failed: " + e.getMessage());
+                }
+                sent++;
+            }
+            int delivered = sent;
+            boolean[] remaining = new boolean[1];
+            // Removing the lane under the same per-key lock as send() means a message
+            // can never be added to a lane that has just been dropped
+            lanes.compute(recipient, (key, current) -> {
+                current.pending -= delivered;
+                remaining[0] = current.pending > 0;
+                return remaining[0] ? current : null;
+            });
+            more = remaining[0];
+        }
+    }
+}
+
+class KeyedOrderingExample {
+    public void demonstrate() {
+        System.out.println("=== PER-RECIPIENT ORDERING ===");
+        
+        RecordingNotifier recorder = new RecordingNotifier(1024);
+        KeyedOrderedNotifier notifier = new KeyedOrderedNotifier(new MultiChannelNotifier(recorder, new SMSNotifier()));
+        
+        notifier.send("+1111111111", "Order ORD-1101 confirmed");
+        notifier.send("+2222222222", "Order ORD-1102 confirmed");
+        notifier.send("+1111111111", "Order ORD-1101 shipped");
+        notifier.send("+2222222222", "Order ORD-1102 shipped");
+        
+        // Lanes disappear once their recipient has nothing left to send
+        while (notifier.getActiveLaneCount() > 0) {
+            Thread.onSpinWait();
+        }
+        System.out.println("Sent " + recorder.getSendCount() + " messages, active lanes: "
+            + notifier.getActiveLaneCount());
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Shard-per-Core Engine
+// ============================================
+
+// Consistent-hash ring: each shard owns many points on a 64-bit ring and a key
+// belongs to the first point at or after its hash. Adding or removing a shard
+// only moves the keys next to that shard's points.
+class ConsistentHashRing {
+    private final long[] points;
+    private final int[] owners;
+    
+    public ConsistentHashRing(int shards, int virtualNodesPerShard) {
+        int size = shards * virtualNodesPerShard;
+        long[][] entries = new long[size][];
+        for (int shard = 0; shard < shards; shard++) {
+            for (int node = 0; node < virtualNodesPerShard; node++) {
+                entries[shard * virtualNodesPerShard + node] =
+                    new long[] {mix(Fnv1a.hash("shard-" + shard + "#" + node)), shard};
+            }
+        }
+        Arrays.sort(entries, (a, b) -> Long.compareUnsigned(a[0], b[0]));
+        this.points = new long[size];
+        this.owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = entries[i][0];
+            owners[i] = (int) entries[i][1];
+        }
+    }
+    
+    public int shardFor(CharSequence key) {
+        long hash = mix(Fnv1a.hash(key));
+        // Binary search for the first point >= hash, wrapping around the ring
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(points[middle], hash) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return owners[low == points.length ? 0 : low];
+    }
+    
+    // FNV alone spreads similar keys poorly; this finaliser (from MurmurHash3) fixes that
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb93e53a6ad51L;
+        return hash ^ (hash >>> 33);
+    }
+}
+
+// Shared-nothing notification engine: one worker thread per shard, each with its
+// own bounded queue and its own notifier instance (so its own buffers and provider
+// connections). Nothing is shared between shards, so throughput grows with cores
+// instead of fighting over one pool. Orders are routed by order id, plain sends by
+// recipient, both through the consistent-hash ring.
+class ShardedNotificationEngine implements Notifier, AutoCloseable {
+    private final ConsistentHashRing ring;
+    private final BlockingQueue<Runnable>[] queues;
+    private final Notifier[] shardNotifiers;
+    private final GoodOrderService[] shardServices;
+    private final Thread[] workers;
+    // enqueue() calls past their closed check; workers don't exit while any remain
+    private final AtomicInteger enqueuing = new AtomicInteger();
+    private volatile boolean running = true;
+    
+    public ShardedNotificationEngine(int shards, int queueCapacity, Supplier<Notifier> notifierPerShard) {
+        this.ring = new ConsistentHashRing(shards, 128);
+        this.queues = newQueues(shards, queueCapacity);
+        this.shardNotifiers = new Notifier[shards];
+        this.shardServices = new GoodOrderService[shards];
+        this.workers = new Thread[shards];
+        for (int shard = 0; shard < shards; shard++) {
+            shardNotifiers[shard] = notifierPerShard.get();
+            shardServices[shard] = new GoodOrderService(shardNotifiers[shard]);
+            BlockingQueue<Runnable> queue = queues[shard];
+            workers[shard] = new Thread(() -> work(queue), "notification-shard-" + shard);
+            workers[shard].setDaemon(true);
+            workers[shard].start();
+        }
+    }
+    
+    public static ShardedNotificationEngine perCore(Supplier<Notifier> notifierPerShard) {
+        return new ShardedNotificationEngine(Runtime.getRuntime().availableProcessors(), 65_536, notifierPerShard);
+    }
+    
+    public void submit(Order order) {
+        int shard = ring.shardFor(order.getOrderId());
+        GoodOrderService service = shardServices[shard];
+        enqueue(shard, () -> service.processOrder(order));
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        int shard = ring.shardFor(recipient);
+        Notifier notifier = shardNotifiers[shard];
+        enqueue(shard, () -> notifier.send(recipient, message));
+    }
+    
+    public int getQueueDepth(int shard) {
+        return queues[shard].size();
+    }
+    
+    @Override
+    public void close() {
+        running = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    private void enqueue(int shard, Runnable task) {
+        enqueuing.incrementAndGet();
+        try {
+            if (!running) {
+                throw new IllegalStateException("Notification engine is closed");
+            }
+            // A full shard pushes back on its callers only
+            queues[shard].put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while queueing for shard " + shard, e);
+        } finally {
+            enqueuing.decrementAndGet();
+        }
+    }
+    
+    private void work(BlockingQueue<Runnable> queue) {
+        while (running || enqueuing.get() > 0 || !queue.isEmpty()) {
+            try {
+                Runnable task = queue.poll(10, TimeUnit.MILLISECONDS);
+                if (task != null) {
+                    task.run();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.out.println("Shard " + Thread.currentThread().getName() + " failed: " + e.getMessage());
+            }
+        }
+    }
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static BlockingQueue<Runnable>[] newQueues(int shards, int capacity) {
+        BlockingQueue<Runnable>[] queues = new BlockingQueue[shards];
+        for (int i = 0; i < shards; i++) {
+            queues[i] = new ArrayBlockingQueue<>(capacity);
+        }
+        return queues;
+    }
+}
+
+class ShardingExample {
+    public void demonstrate() {
+        System.out.println("=== SHARD-PER-CORE ENGINE ===");
+        
+        // Every shard gets its own channel instances - nothing is shared between cores
+        try (ShardedNotificationEngine engine = new ShardedNotificationEngine(4, 1024,
+                 () -> new MultiChannelNotifier(new EmailNotifier(), new SMSNotifier()))) {
+            for (int i = 1; i <= 3; i++) {
+                engine.submit(new Order("customer" + i + "@example.com", "+123456789" + i, "ORD-120" + i));
+            }
+        }
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: SMTP Email Delivery
+// ============================================
+
+// CRLF line protocol over an NIO SocketChannel, used by both ends of the SMTP example.
+// Reads go through the socket's stream adaptor, which honours SO_TIMEOUT (a plain
+// blocking SocketChannel.read never times out); readTimeout of zero waits forever.
+class SmtpChannel implements AutoCloseable {
+    private final SocketChannel channel;
+    private final InputStream input;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(8192).flip();
+    private final StringBuilder line = new StringBuilder();
+    
+    SmtpChannel(SocketChannel channel) throws IOException {
+        this(channel, Duration.ZERO);
+    }
+    
+    SmtpChannel(SocketChannel channel, Duration readTimeout) throws IOException {
+        this.channel = channel;
+        channel.socket().setSoTimeout((int) readTimeout.toMillis());
+        this.input = channel.socket().getInputStream();
+    }
+    
+    // Returns the next line without its CRLF, or null at end of stream
+    String readLine() throws IOException {
+        line.setLength(0);
+        while (true) {
+            while (readBuffer.hasRemaining()) {
+                char c = (char) (readBuffer.get() & 0xFF);
+                if (c == '\n') {
+                    int end = line.length();
+                    if (end > 0 && line.charAt(end - 1) == '\r') {
+                        line.setLength(end - 1);
+                    }
+                    return line.toString();
+                }
+                line.append(c);
+            }
+            // Throws SocketTimeoutException once readTimeout passes without data
+            int read = input.read(readBuffer.array(), 0, readBuffer.capacity());
+            if (read < 0) {
+                return null;
+            }
+            readBuffer.position(0).limit(read);
+        }
+    }
+    
+    // Reads a (possibly multi-line) reply such as "250-first\r\n250 last" and returns its code
+    int readReply(List<String> lines) throws IOException {
+        while (true) {
+            String reply = readLine();
+            if (reply == null || reply.length() < 3) {
+                throw new IOException("Connection closed by SMTP server");
+            }
+            if (lines != null) {
+                lines.add(reply.substring(Math.min(4, reply.length())));
+            }
+            if (reply.length() == 3 || reply.charAt(3) == ' ') {
+                return Integer.parseInt(reply.substring(0, 3));
+            }
+        }
+    }
+    
+    // True when the peer has already sent more than we've consumed (pipelined commands)
+    boolean hasBufferedInput() {
+        return readBuffer.hasRemaining();
+    }
+    
+    void write(CharSequence text) throws IOException {
+        write(StandardCharsets.UTF_8.encode(CharBuffer.wrap(text)));
+    }
+    
+    void write(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
+
+// Email channel that talks SMTP to a real server. Connections are opened lazily,
+// kept open and reused through a small pool. When the server advertises ESMTP
+// PIPELINING, MAIL FROM, every RCPT TO and DATA go out in one write and their
+// replies are read back together - one round-trip instead of 2 + recipients.
+// sendBatch() puts every recipient of the same message text and mail domain into
+// one transaction (a relay hands each domain to a different MX anyway), up to the
+// 100 recipients RFC 5321 guarantees a server will take. Each distinct message is
+// encoded once; every transaction writes from its own view of the same bytes.
+//
+// Connections use blocking NIO channels; callers on virtual threads (see
+// AsyncNotifierAdapter) then wait without holding on to a platform thread.
+// A slot is held for as long as a connection is in use, so callers queue on the
+// slots rather than on the idle list and are woken whether the previous user
+// returned its connection or threw it away. Connects and replies time out, so a
+// hung server can't pin the pool. A pooled connection the server has closed in
+// the meantime is retried once on a fresh connection, provided the message body
+// hadn't been sent yet (otherwise the server may already have accepted it).
+//
+// Messages go out as text/plain UTF-8. Non-ASCII text is sent as 8bit with
+// BODY=8BITMIME where the server advertises it, and base64-encoded elsewhere.
+// Addresses and the subject are checked for CR, LF and angle brackets, so caller
+// data can't end a command line early and inject SMTP commands or headers.
+class SmtpEmailNotifier implements Notifier, AutoCloseable {
+    private static final int MAX_RECIPIENTS_PER_TRANSACTION = 100;
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+    
+    private static final class Connection {
+        final SmtpChannel channel;
+        final boolean pipelining;
+        final boolean eightBitMime;
+        boolean reused;
+        boolean bodySent;
+        
+        Connection(SmtpChannel channel, boolean pipelining, boolean eightBitMime) {
+            this.channel = channel;
+            this.pipelining = pipelining;
+            this.eightBitMime = eightBitMime;
+        }
+    }
+    
+    // One message text, encoded once and written by every transaction that sends it
+    private static final class EncodedMessage {
+        // 7bit when the text is ASCII, otherwise 8bit for servers with 8BITMIME
+        final ByteBuffer plain;
+        // base64 fallback for non-ASCII text; null when the text is ASCII
+        final ByteBuffer base64;
+        
+        EncodedMessage(ByteBuffer plain, ByteBuffer base64) {
+            this.plain = plain;
+            this.base64 = base64;
+        }
+    }
+    
+    private final InetSocketAddress server;
+    private final String sender;
+    private final String subject;
+    private final Duration timeout;
+    private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+    private final Semaphore connectionSlots;
+    
+    public SmtpEmailNotifier(InetSocketAddress server, String sender, String subject, int maxConnections) {
+        this(server, sender, subject, maxConnections, DEFAULT_TIMEOUT);
+    }
+    
+    public SmtpEmailNotifier(InetSocketAddress server, String sender, String subject, int maxConnections,
+                             Duration timeout) {
+        checkAddress(sender);
+        if (subject.indexOf('\r') >= 0 || subject.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Subject must be a single line");
+        }
+        this.server = server;
+        this.sender = sender;
+        this.subject = subject;
+        this.timeout = timeout;
+        this.connectionSlots = new Semaphore(maxConnections);
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        checkAddress(recipient);
+        throwIfRejected(deliver(encode(message, "<" + recipient + ">"), List.of(recipient)));
+    }
+    
+    @Override
+    public void sendBatch(List<Notification> batch) {
+        // Same text for several recipients in one domain: one transaction, many RCPT TO.
+        // Keep going after a rejection so one bad address doesn't hold up the other groups
+        for (Notification notification : batch) {
+            checkAddress(notification.getRecipient());
+        }
+        List<String> rejected = new ArrayList<>();
+        for (Map.Entry<String, Map<String, List<String>>> group : Notification.recipientsByMessageAndDomain(batch).entrySet()) {
+            Map<String, List<String>> byDomain = group.getValue();
+            // Bulk recipients don't get to see each other's addresses
+            String to = byDomain.size() == 1 && byDomain.values().iterator().next().size() == 1
+                ? "<" + byDomain.values().iterator().next().get(0) + ">"
+                : "undisclosed-recipients:;";
+            EncodedMessage message = encode(group.getKey(), to);
+            for (List<String> recipients : byDomain.values()) {
+                for (int from = 0; from < recipients.size(); from += MAX_RECIPIENTS_PER_TRANSACTION) {
+                    List<String> chunk = recipients.subList(from, Math.min(recipients.size(), from + MAX_RECIPIENTS_PER_TRANSACTION));
+                    rejected.addAll(deliver(message, chunk));
+                }
+            }
+        }
+        throwIfRejected(rejected);
+    }
+    
+    @Override
+    public void close() {
+        for (Connection connection = idle.poll(); connection != null; connection = idle.poll()) {
+            try {
+                connection.channel.write("QUIT\r\n");
+                connection.channel.readReply(null);
+            } catch (IOException e) {
+                // Closing anyway
+            } finally {
+                closeQuietly(connection);
+            }
+        }
+    }
+    
+    // Returns the recipients the server refused
+    private List<String> deliver(EncodedMessage message, List<String> recipients) {
+        for (int attempt = 1; ; attempt++) {
+            Connection connection = borrow();
+            boolean reusable = false;
+            try {
+                List<String> rejected = transaction(connection, message, recipients);
+                reusable = true;
+                return rejected;
+            } catch (IOException e) {
+                if (attempt == 1 && connection.reused && !connection.bodySent) {
+                    // The server probably dropped the idle connection; the others are likely stale too
+                    discardIdle();
+                    continue;
+                }
+                throw new UncheckedIOException("SMTP delivery to " + server + " failed", e);
+            } finally {
+                giveBack(connection, reusable);
+            }
+        }
+    }
+    
+    private List<String> transaction(Connection connection, EncodedMessage message, List<String> recipients) throws IOException {
+        SmtpChannel channel = connection.channel;
+        List<String> rejected = new ArrayList<>();
+        int dataReply;
+        boolean eightBit = message.base64 != null && connection.eightBitMime;
+        ByteBuffer body = (message.base64 == null || eightBit ? message.plain : message.base64).duplicate();
+        String mailFrom = "MAIL FROM:<" + sender + ">" + (eightBit ? " BODY=8BITMIME" : "") + "\r\n";
+        
+        if (connection.pipelining) {
+            StringBuilder envelope = new StringBuilder(mailFrom);
+            for (String recipient : recipients) {
+                envelope.append("RCPT TO:<").append(recipient).append(">\r\n");
+            }
+            envelope.append("DATA\r\n");
+            channel.write(envelope);
+            
+            expect(channel.readReply(null), 250, "MAIL FROM");
+            for (String recipient : recipients) {
+                if (channel.readReply(null) >= 400) {
+                    rejected.add(recipient);
+                }
+            }
+            dataReply = channel.readReply(null);
+        } else {
+            channel.write(mailFrom);
+            expect(channel.readReply(null), 250, "MAIL FROM");
+            for (String recipient : recipients) {
+                channel.write("RCPT TO:<" + recipient + ">\r\n");
+                if (channel.readReply(null) >= 400) {
+                    rejected.add(recipient);
+                }
+            }
+            if (rejected.size() == recipients.size()) {
+                channel.write("RSET\r\n");
+                channel.readReply(null);
+                return rejected;
+            }
+            channel.write("DATA\r\n");
+            dataReply = channel.readReply(null);
+        }
+        
+        if (dataReply != 354) {
+            // Every recipient was refused, so the server won't take a body
+            channel.write("RSET\r\n");
+            channel.readReply(null);
+            return rejected;
+        }
+        connection.bodySent = true;
+        channel.write(body);
+        expect(channel.readReply(null), 250, "message body");
+        return rejected;
+    }
+    
+    private EncodedMessage encode(String message, String to) {
+        if (message.chars().allMatch(c -> c < 0x80)) {
+            return new EncodedMessage(encodeBody(message, to, "7bit"), null);
+        }
+        return new EncodedMessage(encodeBody(message, to, "8bit"), encodeBody(message, to, "base64"));
+    }
+    
+    // Read-only so the buffer can be shared; callers write from a duplicate()
+    private ByteBuffer encodeBody(String message, String to, String transferEncoding) {
+        StringBuilder body = new StringBuilder()
+            .append("Date: ").append(DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now())).append("\r\n")
+            .append("From: <").append(sender).append(">\r\n")
+            .append("To: ").append(to).append("\r\n")
+            .append("Subject: ").append(encodeHeaderText(subject)).append("\r\n")
+            .append("MIME-Version: 1.0\r\n")
+            .append("Content-Type: text/plain; charset=UTF-8\r\n")
+            .append("Content-Transfer-Encoding: ").append(transferEncoding).append("\r\n")
+            .append("\r\n");
+        if (transferEncoding.equals("base64")) {
+            // The base64 alphabet has no '.', so no dot-stuffing is needed
+            body.append(Base64.getMimeEncoder().encodeToString(message.getBytes(StandardCharsets.UTF_8))).append("\r\n");
+        } else {
+            for (String line : message.split("\r?\n", -1)) {
+                // Dot-stuffing: a line starting with '.' must not end the message early
+                if (line.startsWith(".")) {
+                    body.append('.');
+                }
+                body.append(line).append("\r\n");
+            }
+        }
+        body.append(".\r\n");
+        return StandardCharsets.UTF_8.encode(CharBuffer.wrap(body)).asReadOnlyBuffer();
+    }
+    
+    // RFC 2047 encoded-word for a non-ASCII subject
+    private static String encodeHeaderText(String text) {
+        if (text.chars().allMatch(c -> c < 0x80)) {
+            return text;
+        }
+        return "=?UTF-8?B?" + Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8)) + "?=";
+    }
+    
+    private static void checkAddress(String address) {
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c == '\r' || c == '\n' || c == '<' || c == '>') {
+                throw new IllegalArgumentException("Invalid email address: " + address.replace("\r", "\\r").replace("\n", "\\n"));
+            }
+        }
+    }
+    
+    private Connection borrow() {
+        try {
+            connectionSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted waiting for an SMTP connection", e);
+        }
+        Connection connection = idle.poll();
+        if (connection != null) {
+            connection.reused = true;
+            connection.bodySent = false;
+            return connection;
+        }
+        try {
+            return connect();
+        } catch (IOException e) {
+            connectionSlots.release();
+            throw new UncheckedIOException("Could not connect to SMTP server " + server, e);
+        }
+    }
+    
+    private void giveBack(Connection connection, boolean reusable) {
+        if (reusable) {
+            idle.add(connection);
+        } else {
+            closeQuietly(connection);
+        }
+        connectionSlots.release();
+    }
+    
+    private void discardIdle() {
+        for (Connection connection = idle.poll(); connection != null; connection = idle.poll()) {
+            closeQuietly(connection);
+        }
+    }
+    
+    private Connection connect() throws IOException {
+        SocketChannel socket = SocketChannel.open();
+        try {
+            socket.socket().connect(server, (int) timeout.toMillis());
+            SmtpChannel channel = new SmtpChannel(socket, timeout);
+            expect(channel.readReply(null), 220, "greeting");
+            channel.write("EHLO " + InetAddress.getLocalHost().getHostName() + "\r\n");
+            List<String> extensions = new ArrayList<>();
+            expect(channel.readReply(extensions), 250, "EHLO");
+            return new Connection(channel,
+                extensions.stream().anyMatch(ext -> ext.equalsIgnoreCase("PIPELINING")),
+                extensions.stream().anyMatch(ext -> ext.equalsIgnoreCase("8BITMIME")));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+    
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Already broken
+        }
+    }
+    
+    private static void throwIfRejected(List<String> rejected) {
+        if (!rejected.isEmpty()) {
+            throw new IllegalStateException("SMTP server rejected " + rejected);
+        }
+    }
+    
+    private static void expect(int reply, int expected, String step) throws IOException {
+        if (reply != expected) {
+            throw new IOException("Unexpected SMTP reply " + reply + " to " + step);
+        }
+    }
+}
+
+// Minimal in-process SMTP server for tests and benchmarks - no network needed.
+// It advertises PIPELINING, accepts every recipient except those rejectedRecipients
+// matches, and counts what it receives. Like a real pipelining server it answers a
+// whole batch of pipelined commands in one write; replyDelay is added once per such
+// write, which makes it behave like a network round-trip.
+class StubSmtpServer implements AutoCloseable {
+    private final ServerSocketChannel serverChannel;
+    private final Predicate<String> rejectedRecipients;
+    private final long replyDelayNanos;
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder recipients = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private final Thread acceptor;
+    
+    public StubSmtpServer(Duration replyDelay, Predicate<String> rejectedRecipients) throws IOException {
+        this.serverChannel = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.rejectedRecipients = rejectedRecipients;
+        this.replyDelayNanos = replyDelay.toNanos();
+        this.acceptor = Thread.ofPlatform().daemon().name("stub-smtp-acceptor").start(this::acceptLoop);
+    }
+    
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+    
+    public long getMessageCount() {
+        return messages.sum();
+    }
+    
+    public long getRecipientCount() {
+        return recipients.sum();
+    }
+    
+    public long getConnectionCount() {
+        return connections.sum();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        acceptor.interrupt();
+    }
+    
+    private void acceptLoop() {
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel client = serverChannel.accept();
+                connections.increment();
+                Thread.ofVirtual().start(() -> handle(client));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+    
+    private void handle(SocketChannel client) {
+        try (SmtpChannel channel = new SmtpChannel(client)) {
+            StringBuilder replies = new StringBuilder();
+            reply(channel, replies, "220 stub ESMTP ready\r\n");
+            int acceptedRecipients = 0;
+            for (String command = channel.readLine(); command != null; command = channel.readLine()) {
+                String verb = command.length() >= 4 ? command.substring(0, 4).toUpperCase() : command;
+                switch (verb) {
+                    case "EHLO":
+                        reply(channel, replies, "250-stub\r\n250-PIPELINING\r\n250 8BITMIME\r\n");
+                        break;
+                    case "MAIL":
+                    case "RSET":
+                        acceptedRecipients = 0;
+                        reply(channel, replies, "250 OK\r\n");
+                        break;
+                    case "RCPT":
+                        String address = command.substring(command.indexOf('<') + 1, command.lastIndexOf('>'));
+                        if (rejectedRecipients.test(address)) {
+                            reply(channel, replies, "550 No such user\r\n");
+                        } else {
+                            acceptedRecipients++;
+                            reply(channel, replies, "250 OK\r\n");
+                        }
+                        break;
+                    case "DATA":
+                        if (acceptedRecipients == 0) {
+                            reply(channel, replies, "554 No valid recipients\r\n");
+                            break;
+                        }
+                        reply(channel, replies, "354 End data with <CR><LF>.<CR><LF>\r\n");
+                        for (String line = channel.readLine(); line != null && !line.equals("."); line = channel.readLine()) {
+                            // Body is discarded
+                        }
+                        messages.increment();
+                        recipients.add(acceptedRecipients);
+                        acceptedRecipients = 0;
+                        reply(channel, replies, "250 Queued\r\n");
+                        break;
+                    case "QUIT":
+                        reply(channel, replies, "221 Bye\r\n");
+                        return;
+                    default:
+                        reply(channel, replies, "502 Command not implemented\r\n");
+                }
+            }
+        } catch (IOException e) {
+            // Client went away
+        }
+    }
+    
+    // Holds replies back while more pipelined commands are already waiting to be read
+    private void reply(SmtpChannel channel, StringBuilder replies, String reply) throws IOException {
+        replies.append(reply);
+        if (channel.hasBufferedInput()) {
+            return;
+        }
+        if (replyDelayNanos > 0) {
+            LockSupport.parkNanos(replyDelayNanos);
+        }
+        channel.write(replies);
+        replies.setLength(0);
+    }
+}
+
+class SmtpExample {
+    public void demonstrate() {
+        System.out.println("=== SMTP EMAIL DELIVERY ===");
+        
+        try (StubSmtpServer server = new StubSmtpServer(Duration.ZERO, address -> address.startsWith("bounce"));
+             SmtpEmailNotifier email = new SmtpEmailNotifier(server.getAddress(), "orders@example.com", "Your order", 4)) {
+            GoodOrderService service = new GoodOrderService(email);
+            service.processOrder(new Order("customer@example.com", "+1234567890", "ORD-1301"));
+            
+            // Three recipients, same text: one SMTP transaction
+            email.sendBatch(List.of(
+                new Notification("a@example.com", "Flash sale!"),
+                new Notification("b@example.com", "Flash sale!"),
+                new Notification("c@example.com", "Flash sale!")));
+            
+            System.out.println("Server received " + server.getMessageCount() + " messages for "
+                + server.getRecipientCount() + " recipients over " + server.getConnectionCount() + " connection(s)");
+        } catch (IOException e) {
+            System.out.println("SMTP example failed: " + e.getMessage());
+        }
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: SMPP SMS Delivery
+// ============================================
+
+// Just enough SMPP 3.4 framing for the SMS example: every PDU is a 16-byte header
+// (length, command id, status, sequence number) followed by a command body.
+final class SmppPdu {
+    static final int BIND_TRANSMITTER = 0x00000002;
+    static final int BIND_TRANSMITTER_RESP = 0x80000002;
+    static final int SUBMIT_SM = 0x00000004;
+    static final int SUBMIT_SM_RESP = 0x80000004;
+    static final int SUBMIT_MULTI = 0x00000021;
+    static final int SUBMIT_MULTI_RESP = 0x80000021;
+    static final int UNBIND = 0x00000006;
+    static final int UNBIND_RESP = 0x80000006;
+    static final int ENQUIRE_LINK = 0x00000015;
+    static final int ENQUIRE_LINK_RESP = 0x80000015;
+    static final int GENERIC_NACK = 0x80000000;
+    
+    static final int ESME_ROK = 0x00000000;
+    static final int ESME_RSYSERR = 0x00000008;
+    static final int ESME_RTHROTTLED = 0x00000058;
+    
+    static final int HEADER_BYTES = 16;
+    
+    private SmppPdu() {
+    }
+    
+    // Starts a PDU; finish() fills in the length once the body has been written
+    static ByteBuffer start(int commandId, int status, int sequence, int bodyCapacity) {
+        ByteBuffer pdu = ByteBuffer.allocate(HEADER_BYTES + bodyCapacity);
+        pdu.putInt(0).putInt(commandId).putInt(status).putInt(sequence);
+        return pdu;
+    }
+    
+    static ByteBuffer finish(ByteBuffer pdu) {
+        pdu.putInt(0, pdu.position());
+        return pdu.flip();
+    }
+    
+    // For a PDU written as this head plus a shared, already-encoded tail
+    static ByteBuffer finish(ByteBuffer head, ByteBuffer tail) {
+        head.putInt(0, head.position() + tail.remaining());
+        return head.flip();
+    }
+    
+    static void putCString(ByteBuffer pdu, String value) {
+        pdu.put(value.getBytes(StandardCharsets.US_ASCII)).put((byte) 0);
+    }
+    
+    static String getCString(ByteBuffer pdu) {
+        StringBuilder value = new StringBuilder();
+        for (byte b = pdu.get(); b != 0; b = pdu.get()) {
+            value.append((char) b);
+        }
+        return value.toString();
+    }
+    
+    // Reads one whole PDU (header included); null at end of stream
+    static ByteBuffer read(SocketChannel channel) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        if (!readFully(channel, length)) {
+            return null;
+        }
+        int commandLength = length.getInt(0);
+        if (commandLength < HEADER_BYTES || commandLength > 64 * 1024) {
+            throw new IOException("Invalid SMPP command length " + commandLength);
+        }
+        ByteBuffer pdu = ByteBuffer.allocate(commandLength);
+        pdu.putInt(commandLength);
+        if (!readFully(channel, pdu)) {
+            return null;
+        }
+        return pdu.flip();
+    }
+    
+    // Gathering write, so a shared tail never has to be copied into the PDU
+    static void write(SocketChannel channel, ByteBuffer... pdu) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer part : pdu) {
+            remaining += part.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(pdu);
+        }
+    }
+    
+    private static boolean readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
+
+// SMS channel over a persistent SMPP transmitter session. Up to windowSize
+// submit_sm requests are outstanding at once; a reader thread matches each
+// submit_sm_resp to its request by sequence number, so throughput is about
+// windowSize / round-trip instead of 1 / round-trip.
+// sendBatch() sends each text that goes to several recipients as submit_multi
+// PDUs of up to 254 destinations. The text is encoded once per batch and every
+// PDU writes it from a read-only view of the same buffer.
+// The session sends enquire_link every enquireLinkInterval. If the SMSC sends
+// nothing back for two intervals, or drops the connection, the reader fails
+// whatever is outstanding and rebinds with backoff; sends in the meantime fail
+// fast instead of waiting for a response that cannot come.
+class SmppSmsNotifier implements Notifier, AsyncNotifier, AutoCloseable {
+    private static final int MAX_SHORT_MESSAGE_BYTES = 254;
+    private static final int MAX_DESTINATIONS = 254;
+    private static final Duration DEFAULT_ENQUIRE_LINK_INTERVAL = Duration.ofSeconds(30);
+    private static final long MAX_REBIND_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(30);
+    
+    private final InetSocketAddress smsc;
+    private final String systemId;
+    private final String password;
+    private final String sourceAddress;
+    private final Semaphore window;
+    private final Duration responseTimeout;
+    private final Duration enquireLinkInterval;
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, CompletableFuture<String>> outstanding = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private final ScheduledExecutorService keepAlive = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "smpp-keepalive");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile SocketChannel channel;
+    private volatile long lastReceivedNanos;
+    private volatile boolean closed;
+    private final Thread reader;
+    
+    public SmppSmsNotifier(InetSocketAddress smsc, String systemId, String password, String sourceAddress,
+                           int windowSize, Duration responseTimeout) throws IOException {
+        this(smsc, systemId, password, sourceAddress, windowSize, responseTimeout, DEFAULT_ENQUIRE_LINK_INTERVAL);
+    }
+    
+    public SmppSmsNotifier(InetSocketAddress smsc, String systemId, String password, String sourceAddress,
+                           int windowSize, Duration responseTimeout, Duration enquireLinkInterval) throws IOException {
+        this.smsc = smsc;
+        this.systemId = systemId;
+        this.password = password;
+        this.sourceAddress = sourceAddress;
+        this.window = new Semaphore(windowSize);
+        this.responseTimeout = responseTimeout;
+        this.enquireLinkInterval = enquireLinkInterval;
+        try {
+            this.channel = bind();
+        } catch (IOException e) {
+            keepAlive.shutdown();
+            throw e;
+        }
+        this.reader = Thread.ofPlatform().daemon().name("smpp-reader").start(this::runSessions);
+        keepAlive.scheduleWithFixedDelay(this::enquireLink,
+            enquireLinkInterval.toNanos(), enquireLinkInterval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        AsyncNotifier.await(sendAsync(recipient, message));
+    }
+    
+    @Override
+    public CompletableFuture<Void> sendAsync(String recipient, String message) {
+        return submit(recipient, message).thenApply(messageId -> null);
+    }
+    
+    @Override
+    public void sendBatch(List<Notification> batch) {
+        List<CompletableFuture<String>> acknowledgements = new ArrayList<>();
+        Notification.recipientsByMessage(batch).forEach((message, recipients) -> {
+            ByteBuffer shortMessage = encodeShortMessage(message);
+            if (recipients.size() == 1) {
+                acknowledgements.add(submit(recipients.get(0), shortMessage));
+                return;
+            }
+            for (int from = 0; from < recipients.size(); from += MAX_DESTINATIONS) {
+                List<String> chunk = recipients.subList(from, Math.min(recipients.size(), from + MAX_DESTINATIONS));
+                int sequenceNumber = nextSequence();
+                ByteBuffer shared = shortMessage.duplicate();
+                acknowledgements.add(submitPdu(sequenceNumber, submitMultiHead(sequenceNumber, chunk, shared), shared));
+            }
+        });
+        AsyncNotifier.await(CompletableFuture.allOf(acknowledgements.toArray(new CompletableFuture<?>[0])));
+    }
+    
+    // Completes with the SMSC's message id once submit_sm_resp arrives. Text that
+    // doesn't fit in one SMS fails the future rather than throwing.
+    public CompletableFuture<String> submit(String recipient, String message) {
+        ByteBuffer shortMessage;
+        try {
+            shortMessage = encodeShortMessage(message);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return submit(recipient, shortMessage);
+    }
+    
+    private CompletableFuture<String> submit(String recipient, ByteBuffer shortMessage) {
+        int sequenceNumber = nextSequence();
+        ByteBuffer shared = shortMessage.duplicate();
+        return submitPdu(sequenceNumber, submitSmHead(sequenceNumber, recipient, shared), shared);
+    }
+    
+    private CompletableFuture<String> submitPdu(int sequenceNumber, ByteBuffer head, ByteBuffer shortMessage) {
+        // Waiting for a window slot is the only place a caller can block, and for
+        // no longer than a response would take
+        try {
+            if (!window.tryAcquire(responseTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                return CompletableFuture.failedFuture(
+                    new RejectedExecutionException("No SMPP window slot free within " + responseTimeout));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(
+                new RejectedExecutionException("Interrupted waiting for an SMPP window slot", e));
+        }
+        CompletableFuture<String> response = new CompletableFuture<>();
+        outstanding.put(sequenceNumber, response);
+        CompletableFuture<String> result = response
+            .orTimeout(responseTimeout.toNanos(), TimeUnit.NANOSECONDS)
+            .whenComplete((messageId, failure) -> {
+                outstanding.remove(sequenceNumber);
+                window.release();
+            });
+        try {
+            write(channel, head, shortMessage);
+        } catch (IOException e) {
+            response.completeExceptionally(new UncheckedIOException("SMPP write failed", e));
+        }
+        return result;
+    }
+    
+    public int getOutstandingCount() {
+        return outstanding.size();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        keepAlive.shutdown();
+        // Wakes the reader if it is backing off between rebind attempts
+        LockSupport.unpark(reader);
+        SocketChannel current = channel;
+        try {
+            write(current, SmppPdu.finish(SmppPdu.start(SmppPdu.UNBIND, 0, nextSequence(), 0)));
+            reader.join(responseTimeout.toMillis());
+        } catch (IOException e) {
+            // Session already dropped; there is nothing to unbind
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            current.close();
+        }
+    }
+    
+    // submit_sm and submit_multi share everything from data_coding onwards, so that
+    // part is encoded once and written after each PDU's own head
+    private static ByteBuffer encodeShortMessage(String message) {
+        boolean ascii = message.chars().allMatch(c -> c < 0x80);
+        // Plain ASCII goes as IA5 rather than the SMSC default alphabet, which is
+        // usually GSM 03.38 and maps '@', '$' and '_' to other characters
+        byte[] text = message.getBytes(ascii ? StandardCharsets.US_ASCII : StandardCharsets.UTF_16BE);
+        if (text.length > MAX_SHORT_MESSAGE_BYTES) {
+            throw new IllegalArgumentException("Message too long for a single SMS: " + text.length + " bytes");
+        }
+        ByteBuffer shortMessage = ByteBuffer.allocate(3 + text.length);
+        shortMessage.put((byte) (ascii ? 0x01 : 0x08)); // data_coding: IA5 or UCS-2
+        shortMessage.put((byte) 0);                     // sm_default_msg_id
+        shortMessage.put((byte) text.length).put(text);
+        return shortMessage.flip().asReadOnlyBuffer();
+    }
+    
+    private ByteBuffer submitSmHead(int sequenceNumber, String recipient, ByteBuffer shortMessage) {
+        ByteBuffer pdu = SmppPdu.start(SmppPdu.SUBMIT_SM, 0, sequenceNumber, 64 + sourceAddress.length() + recipient.length());
+        putSource(pdu);
+        pdu.put((byte) 1).put((byte) 1);                // destination TON / NPI
+        SmppPdu.putCString(pdu, destination(recipient));
+        putDeliveryOptions(pdu);
+        return SmppPdu.finish(pdu, shortMessage);
+    }
+    
+    private ByteBuffer submitMultiHead(int sequenceNumber, List<String> recipients, ByteBuffer shortMessage) {
+        int addressBytes = 0;
+        for (String recipient : recipients) {
+            addressBytes += 4 + recipient.length();
+        }
+        ByteBuffer pdu = SmppPdu.start(SmppPdu.SUBMIT_MULTI, 0, sequenceNumber, 64 + sourceAddress.length() + addressBytes);
+        putSource(pdu);
+        pdu.put((byte) recipients.size());              // number_of_dests
+        for (String recipient : recipients) {
+            pdu.put((byte) 1);                          // dest_flag: SME address
+            pdu.put((byte) 1).put((byte) 1);            // destination TON / NPI
+            SmppPdu.putCString(pdu, destination(recipient));
+        }
+        putDeliveryOptions(pdu);
+        return SmppPdu.finish(pdu, shortMessage);
+    }
+    
+    private void putSource(ByteBuffer pdu) {
+        SmppPdu.putCString(pdu, "");                    // service_type
+        pdu.put((byte) 1).put((byte) 1);                // source TON / NPI: international, ISDN
+        SmppPdu.putCString(pdu, sourceAddress);
+    }
+    
+    private static void putDeliveryOptions(ByteBuffer pdu) {
+        pdu.put((byte) 0).put((byte) 0).put((byte) 0);  // esm_class, protocol_id, priority_flag
+        SmppPdu.putCString(pdu, "");                    // schedule_delivery_time
+        SmppPdu.putCString(pdu, "");                    // validity_period
+        pdu.put((byte) 0).put((byte) 0);                // registered_delivery, replace_if_present
+    }
+    
+    private static String destination(String recipient) {
+        return recipient.startsWith("+") ? recipient.substring(1) : recipient;
+    }
+    
+    // Opens and binds a new session. A bind the SMSC never answers is cut off
+    // after responseTimeout so a rebind cannot hang the reader for good.
+    private SocketChannel bind() throws IOException {
+        SocketChannel session = SocketChannel.open(smsc);
+        ScheduledFuture<?> deadline = null;
+        try {
+            deadline = keepAlive.schedule(() -> closeQuietly(session), responseTimeout.toNanos(), TimeUnit.NANOSECONDS);
+            ByteBuffer pdu = SmppPdu.start(SmppPdu.BIND_TRANSMITTER, 0, nextSequence(),
+                16 + systemId.length() + password.length());
+            SmppPdu.putCString(pdu, systemId);
+            SmppPdu.putCString(pdu, password);
+            SmppPdu.putCString(pdu, "");                // system_type
+            pdu.put((byte) 0x34);                       // interface_version 3.4
+            pdu.put((byte) 0).put((byte) 0);            // addr_ton, addr_npi
+            SmppPdu.putCString(pdu, "");                // address_range
+            SmppPdu.write(session, SmppPdu.finish(pdu));
+            
+            ByteBuffer response = SmppPdu.read(session);
+            if (response == null || response.getInt(4) != SmppPdu.BIND_TRANSMITTER_RESP || response.getInt(8) != SmppPdu.ESME_ROK) {
+                throw new IOException("SMPP bind refused" + (response != null ? ", status " + response.getInt(8) : ""));
+            }
+            lastReceivedNanos = System.nanoTime();
+            return session;
+        } catch (IOException | RuntimeException e) {
+            session.close();
+            throw e;
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+        }
+    }
+    
+    // Reader thread: serves one session until it ends, then rebinds unless closed
+    private void runSessions() {
+        SocketChannel current = channel;
+        while (true) {
+            readResponses(current);
+            closeQuietly(current);
+            IOException lost = new IOException("SMPP session closed");
+            outstanding.values().forEach(response -> response.completeExceptionally(lost));
+            current = rebind();
+            if (current == null) {
+                return;
+            }
+            channel = current;
+            if (closed) {
+                closeQuietly(current);
+                return;
+            }
+        }
+    }
+    
+    private SocketChannel rebind() {
+        long backoffNanos = TimeUnit.MILLISECONDS.toNanos(100);
+        while (!closed) {
+            try {
+                return bind();
+            } catch (IOException | RejectedExecutionException e) {
+                // SMSC still unreachable, or close() shut the timer down mid-bind
+            }
+            LockSupport.parkNanos(backoffNanos);
+            backoffNanos = Math.min(backoffNanos * 2, MAX_REBIND_BACKOFF_NANOS);
+        }
+        return null;
+    }
+    
+    // Any PDU from the SMSC counts as a sign of life. Closing a silent link
+    // makes the reader's blocked read fail, which starts the rebind.
+    private void enquireLink() {
+        SocketChannel current = channel;
+        if (System.nanoTime() - lastReceivedNanos > 2 * enquireLinkInterval.toNanos()) {
+            closeQuietly(current);
+            return;
+        }
+        try {
+            write(current, SmppPdu.finish(SmppPdu.start(SmppPdu.ENQUIRE_LINK, 0, nextSequence(), 0)));
+        } catch (IOException e) {
+            closeQuietly(current);
+        }
+    }
+    
+    private void readResponses(SocketChannel session) {
+        try {
+            for (ByteBuffer pdu = SmppPdu.read(session); pdu != null; pdu = SmppPdu.read(session)) {
+                lastReceivedNanos = System.nanoTime();
+                int commandId = pdu.getInt(4);
+                int status = pdu.getInt(8);
+                int sequenceNumber = pdu.getInt(12);
+                if (commandId == SmppPdu.SUBMIT_SM_RESP || commandId == SmppPdu.SUBMIT_MULTI_RESP
+                        || commandId == SmppPdu.GENERIC_NACK) {
+                    CompletableFuture<String> response = outstanding.get(sequenceNumber);
+                    if (response == null) {
+                        continue;
+                    }
+                    if (status != SmppPdu.ESME_ROK) {
+                        response.completeExceptionally(new IllegalStateException(
+                            String.format("SMSC rejected submit with status 0x%08X", status)));
+                        continue;
+                    }
+                    pdu.position(SmppPdu.HEADER_BYTES);
+                    String messageId = pdu.hasRemaining() ? SmppPdu.getCString(pdu) : "";
+                    List<String> unsuccessful = new ArrayList<>();
+                    if (commandId == SmppPdu.SUBMIT_MULTI_RESP && pdu.hasRemaining()) {
+                        for (int i = pdu.get() & 0xFF; i > 0; i--) {
+                            pdu.get();
+                            pdu.get();                  // TON / NPI
+                            String address = SmppPdu.getCString(pdu);
+                            unsuccessful.add(String.format("%s (0x%08X)", address, pdu.getInt()));
+                        }
+                    }
+                    if (unsuccessful.isEmpty()) {
+                        response.complete(messageId);
+                    } else {
+                        response.completeExceptionally(new IllegalStateException("SMSC rejected destinations " + unsuccessful));
+                    }
+                } else if (commandId == SmppPdu.ENQUIRE_LINK) {
+                    write(session, SmppPdu.finish(SmppPdu.start(SmppPdu.ENQUIRE_LINK_RESP, 0, sequenceNumber, 0)));
+                } else if (commandId == SmppPdu.UNBIND_RESP) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // Session is gone; the caller fails whatever is outstanding
+        }
+    }
+    
+    private void write(SocketChannel session, ByteBuffer... pdu) throws IOException {
+        synchronized (writeLock) {
+            SmppPdu.write(session, pdu);
+        }
+    }
+    
+    private static void closeQuietly(SocketChannel session) {
+        try {
+            session.close();
+        } catch (IOException e) {
+            // Already unusable
+        }
+    }
+    
+    private int nextSequence() {
+        // SMPP sequence numbers run from 1 to 0x7FFFFFFF
+        return (sequence.getAndIncrement() & 0x7FFFFFFF) % 0x7FFFFFFF + 1;
+    }
+}
+
+// In-process stand-in SMSC for offline throughput tests. Every submit_sm is answered
+// after `latency`, independently of the others, so responses can come back out of
+// order like on a real SMSC. errorRate of the submits are answered with a throttling
+// or system error instead of success. submit_multi succeeds or fails as a whole.
+class StubSmsc implements AutoCloseable {
+    private final ServerSocketChannel serverChannel;
+    private final long latencyNanos;
+    private final double errorRate;
+    private final ScheduledExecutorService responder;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder submits = new LongAdder();
+    private final AtomicLong messageIds = new AtomicLong();
+    private final Thread acceptor;
+    
+    public StubSmsc(Duration latency, double errorRate) throws IOException {
+        this.serverChannel = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.latencyNanos = latency.toNanos();
+        this.errorRate = errorRate;
+        this.responder = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "stub-smsc-responder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.acceptor = Thread.ofPlatform().daemon().name("stub-smsc-acceptor").start(this::acceptLoop);
+    }
+    
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+    
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+    
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+    
+    // Submit PDUs received; lower than accepted + rejected when submit_multi was used
+    public long getSubmitCount() {
+        return submits.sum();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        acceptor.interrupt();
+        responder.shutdownNow();
+    }
+    
+    private void acceptLoop() {
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel client = serverChannel.accept();
+                Thread.ofVirtual().start(() -> handle(client));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+    
+    private void handle(SocketChannel client) {
+        try (client) {
+            for (ByteBuffer pdu = SmppPdu.read(client); pdu != null; pdu = SmppPdu.read(client)) {
+                int commandId = pdu.getInt(4);
+                int sequenceNumber = pdu.getInt(12);
+                switch (commandId) {
+                    case SmppPdu.BIND_TRANSMITTER: {
+                        ByteBuffer reply = SmppPdu.start(SmppPdu.BIND_TRANSMITTER_RESP, SmppPdu.ESME_ROK, sequenceNumber, 8);
+                        SmppPdu.putCString(reply, "stub");
+                        write(client, SmppPdu.finish(reply));
+                        break;
+                    }
+                    case SmppPdu.SUBMIT_SM:
+                        submits.increment();
+                        responder.schedule(() -> respondToSubmit(client, SmppPdu.SUBMIT_SM_RESP, sequenceNumber, 1),
+                            latencyNanos, TimeUnit.NANOSECONDS);
+                        break;
+                    case SmppPdu.SUBMIT_MULTI: {
+                        submits.increment();
+                        pdu.position(SmppPdu.HEADER_BYTES);
+                        SmppPdu.getCString(pdu);        // service_type
+                        pdu.get();
+                        pdu.get();                      // source TON / NPI
+                        SmppPdu.getCString(pdu);        // source_addr
+                        int destinations = pdu.get() & 0xFF;
+                        responder.schedule(() -> respondToSubmit(client, SmppPdu.SUBMIT_MULTI_RESP, sequenceNumber, destinations),
+                            latencyNanos, TimeUnit.NANOSECONDS);
+                        break;
+                    }
+                    case SmppPdu.ENQUIRE_LINK:
+                        write(client, SmppPdu.finish(SmppPdu.start(SmppPdu.ENQUIRE_LINK_RESP, 0, sequenceNumber, 0)));
+                        break;
+                    case SmppPdu.UNBIND:
+                        write(client, SmppPdu.finish(SmppPdu.start(SmppPdu.UNBIND_RESP, 0, sequenceNumber, 0)));
+                        return;
+                    default:
+                        write(client, SmppPdu.finish(SmppPdu.start(SmppPdu.GENERIC_NACK, 0x00000003, sequenceNumber, 0)));
+                }
+            }
+        } catch (IOException e) {
+            // Client went away
+        }
+    }
+    
+    private void respondToSubmit(SocketChannel client, int responseId, int sequenceNumber, int destinations) {
+        ByteBuffer reply;
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < errorRate) {
+            rejected.add(destinations);
+            int status = roll < errorRate / 2 ? SmppPdu.ESME_RTHROTTLED : SmppPdu.ESME_RSYSERR;
+            reply = SmppPdu.finish(SmppPdu.start(responseId, status, sequenceNumber, 0));
+        } else {
+            accepted.add(destinations);
+            reply = SmppPdu.start(responseId, SmppPdu.ESME_ROK, sequenceNumber, 24);
+            SmppPdu.putCString(reply, Long.toHexString(messageIds.incrementAndGet()));
+            if (responseId == SmppPdu.SUBMIT_MULTI_RESP) {
+                reply.put((byte) 0);                    // no_unsuccess
+            }
+            reply = SmppPdu.finish(reply);
+        }
+        try {
+            write(client, reply);
+        } catch (IOException e) {
+            // Client went away
+        }
+    }
+    
+    private static void write(SocketChannel client, ByteBuffer pdu) throws IOException {
+        synchronized (client) {
+            SmppPdu.write(client, pdu);
+        }
+    }
+}
+
+class SmppExample {
+    public void demonstrate() {
+        System.out.println("=== SMPP SMS DELIVERY ===");
+        
+        // 20ms per response, 10% errors; with a window of 64 the round-trip barely matters
+        try (StubSmsc smsc = new StubSmsc(Duration.ofMillis(20), 0.1);
+             SmppSmsNotifier sms = new SmppSmsNotifier(smsc.getAddress(), "orders", "secret", "15550001111",
+                 64, Duration.ofSeconds(5))) {
+            List<CompletableFuture<Void>> acknowledgements = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                acknowledgements.add(sms.sendAsync("+1234567890", "Order ORD-14" + i + " confirmed"));
+            }
+            long failed = acknowledgements.stream()
+                .filter(ack -> ack.handle((ok, failure) -> failure != null).join())
+                .count();
+            System.out.println("Accepted " + smsc.getAcceptedCount() + ", failed " + failed);
+        } catch (IOException e) {
+            System.out.println("SMPP example failed: " + e.getMessage());
+        }
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Slack Webhook Delivery
+// ============================================
+
+// Slack channel that posts to an incoming-webhook URL with java.net.http.HttpClient.
+// One shared client keeps connections open; against Slack (HTTPS) it negotiates
+// HTTP/2 and multiplexes concurrent posts over a single connection. At most
+// maxConcurrentRequests posts are in flight (roughly a server's HTTP/2 stream
+// limit); further posts queue without holding a thread.
+// A 429 or 503 with Retry-After pauses the whole notifier until that time - later
+// sends wait too, since the limit applies to the webhook - and the retry is
+// scheduled on a timer rather than by sleeping, so no thread is held meanwhile.
+class HttpSlackNotifier implements Notifier, AsyncNotifier {
+    private static final long DEFAULT_RETRY_AFTER_SECONDS = 1;
+    
+    private final HttpClient client;
+    private final URI webhook;
+    private final int maxAttempts;
+    private final int maxConcurrentRequests;
+    private final ArrayDeque<CompletableFuture<Void>> waitingForSlot = new ArrayDeque<>();
+    private int inFlight;
+    private final AtomicLong throttledUntilNanos = new AtomicLong(System.nanoTime());
+    private final LongAdder throttled = new LongAdder();
+    
+    public HttpSlackNotifier(URI webhook, int maxAttempts) {
+        this(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build(),
+            webhook, maxAttempts, 64);
+    }
+    
+    public HttpSlackNotifier(HttpClient client, URI webhook, int maxAttempts, int maxConcurrentRequests) {
+        this.client = client;
+        this.webhook = webhook;
+        this.maxAttempts = maxAttempts;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        AsyncNotifier.await(sendAsync(recipient, message));
+    }
+    
+    @Override
+    public CompletableFuture<Void> sendAsync(String recipient, String message) {
+        HttpRequest request = HttpRequest.newBuilder(webhook)
+            .timeout(Duration.ofSeconds(10))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(
+                "{\"channel\":\"" + jsonEscape(recipient) + "\",\"text\":\"" + jsonEscape(message) + "\"}"))
+            .build();
+        return acquireSlot()
+            .thenCompose(ignored -> post(request, 1))
+            .whenComplete((ignored, failure) -> releaseSlot());
+    }
+    
+    // Number of 429/503 responses seen so far
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+    
+    private CompletableFuture<Void> post(HttpRequest request, int attempt) {
+        long wait = throttledUntilNanos.get() - System.nanoTime();
+        if (wait > 0) {
+            return CompletableFuture.supplyAsync(() -> null,
+                    CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS))
+                .thenCompose(ignored -> post(request, attempt));
+        }
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+            .thenCompose(response -> {
+                int status = response.statusCode();
+                if (status / 100 == 2) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                if ((status == 429 || status == 503) && attempt < maxAttempts) {
+                    throttled.increment();
+                    long retryAfter = response.headers().firstValue("Retry-After")
+                        .map(HttpSlackNotifier::parseSeconds)
+                        .orElse(DEFAULT_RETRY_AFTER_SECONDS);
+                    long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(retryAfter);
+                    throttledUntilNanos.accumulateAndGet(until, Math::max);
+                    return post(request, attempt + 1);
+                }
+                return CompletableFuture.failedFuture(
+                    new IllegalStateException("Slack webhook returned HTTP " + status));
+            });
+    }
+    
+    // Completes once a request slot is free; never blocks the caller
+    private synchronized CompletableFuture<Void> acquireSlot() {
+        if (inFlight < maxConcurrentRequests) {
+            inFlight++;
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> slot = new CompletableFuture<>();
+        waitingForSlot.add(slot);
+        return slot;
+    }
+    
+    private void releaseSlot() {
+        CompletableFuture<Void> next;
+        synchronized (this) {
+            next = waitingForSlot.poll();
+            if (next == null) {
+                inFlight--;
+                return;
+            }
+        }
+        // Hand the slot straight to the next waiting post, outside the lock
+        next.complete(null);
+    }
+    
+    private static long parseSeconds(String value) {
+        try {
+            return Math.max(Long.parseLong(value.trim()), 0);
+        } catch (NumberFormatException e) {
+            // Retry-After may also be an HTTP date; fall back to the default pause
+            return DEFAULT_RETRY_AFTER_SECONDS;
+        }
+    }
+    
+    private static String jsonEscape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': escaped.append("\\\""); break;
+                case '\\': escaped.append("\\\\"); break;
+                case '\n': escaped.append("\\n"); break;
+                case '\r': escaped.append("\\r"); break;
+                case '\t': escaped.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        escaped.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        escaped.append(c);
+                    }
+            }
+        }
+        return escaped.toString();
+    }
+}
+
+// Local stand-in for a Slack webhook, for measuring sustained requests per second.
+// The JDK's built-in server speaks HTTP/1.1 only, so here the client falls back to
+// pooled keep-alive connections. Requests over requestsPerSecond get a 429 with
+// Retry-After, like Slack's own rate limiting.
+class StubWebhookServer implements AutoCloseable {
+    private final HttpServer server;
+    private final TokenBucket rateLimit;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    
+    public StubWebhookServer(double requestsPerSecond) throws IOException {
+        this.rateLimit = new TokenBucket(requestsPerSecond, (int) Math.max(requestsPerSecond / 10, 1));
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/webhook", exchange -> {
+            try (exchange) {
+                exchange.getRequestBody().readAllBytes();
+                if (rateLimit.reserve(0) < 0) {
+                    throttled.increment();
+                    exchange.getResponseHeaders().add("Retry-After", "1");
+                    exchange.sendResponseHeaders(429, -1);
+                } else {
+                    accepted.increment();
+                    byte[] ok = "ok".getBytes(StandardCharsets.US_ASCII);
+                    exchange.sendResponseHeaders(200, ok.length);
+                    exchange.getResponseBody().write(ok);
+                }
+            }
+        });
+        server.start();
+    }
+    
+    public URI getWebhookUri() {
+        InetSocketAddress address = server.getAddress();
+        return URI.create("http://" + address.getHostString() + ":" + address.getPort() + "/webhook");
+    }
+    
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+    
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+    
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
+
+class SlackWebhookExample {
+    public void demonstrate() {
+        System.out.println("=== SLACK WEBHOOK DELIVERY ===");
+        
+        try (StubWebhookServer webhook = new StubWebhookServer(100_000)) {
+            HttpSlackNotifier slack = new HttpSlackNotifier(webhook.getWebhookUri(), 3);
+            
+            long start = System.nanoTime();
+            List<CompletableFuture<Void>> posts = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                posts.add(slack.sendAsync("#orders", "Order ORD-15" + i + " confirmed"));
+            }
+            CompletableFuture.allOf(posts.toArray(new CompletableFuture<?>[0])).join();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            
+            System.out.println(String.format("Posted %d messages at %.0f requests/s",
+                webhook.getAcceptedCount(), webhook.getAcceptedCount() / seconds));
+        } catch (IOException e) {
+            System.out.println("Webhook example failed: " + e.getMessage());
+        }
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Digest Coalescing
+// ============================================
+
+// Holds messages per recipient for a short window and sends them as one digest,
+// so five orders in five seconds cost one provider call instead of five.
+// Because every digest waits the same window, creation order is also due order:
+// a plain FIFO queue replaces a timer per recipient, and a single flusher pops
+// whatever is due. Memory is bounded twice over - at most maxPendingRecipients
+// digests are held (beyond that, messages are sent straight through) and each
+// digest keeps at most maxMessagesPerDigest texts, summarising the rest.
+class CoalescingNotifier implements Notifier, AutoCloseable {
+    private static final class Digest {
+        final String recipient;
+        final long dueNanos;
+        final List<String> messages = new ArrayList<>(2);
+        int dropped;
+        
+        Digest(String recipient, long dueNanos) {
+            this.recipient = recipient;
+            this.dueNanos = dueNanos;
+        }
+    }
+    
+    private final Notifier delegate;
+    private final long windowNanos;
+    private final int maxPendingRecipients;
+    private final int maxMessagesPerDigest;
+    private final ConcurrentHashMap<String, Digest> pending = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Digest> dueOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final LongAdder coalesced = new LongAdder();
+    private final ScheduledExecutorService flusher;
+    // The flusher, close() and a send() racing close() can all flush; one at a time
+    // keeps peek() and poll() on the same head
+    private final Object flushLock = new Object();
+    private volatile boolean closed;
+    
+    public CoalescingNotifier(Notifier delegate, Duration window, int maxPendingRecipients, int maxMessagesPerDigest) {
+        this.delegate = delegate;
+        this.windowNanos = window.toNanos();
+        this.maxPendingRecipients = maxPendingRecipients;
+        this.maxMessagesPerDigest = maxMessagesPerDigest;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "digest-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tick = Math.max(windowNanos / 10, TimeUnit.MILLISECONDS.toNanos(1));
+        flusher.scheduleWithFixedDelay(() -> flushDue(false), tick, tick, TimeUnit.NANOSECONDS);
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        boolean[] held = new boolean[1];
+        Digest[] created = new Digest[1];
+        pending.compute(recipient, (key, digest) -> {
+            if (digest == null) {
+                // Too many recipients waiting already: don't hold this one
+                if (pendingCount.get() >= maxPendingRecipients) {
+                    return null;
+                }
+                pendingCount.incrementAndGet();
+                digest = new Digest(recipient, System.nanoTime() + windowNanos);
+                created[0] = digest;
+            } else {
+                coalesced.increment();
+            }
+            if (digest.messages.size() < maxMessagesPerDigest) {
+                digest.messages.add(message);
+            } else {
+                digest.dropped++;
+            }
+            held[0] = true;
+            return digest;
+        });
+        if (created[0] != null) {
+            dueOrder.add(created[0]);
+        }
+        if (!held[0]) {
+            delegate.send(recipient, message);
+        } else if (closed) {
+            // Raced with close(): nothing would flush this digest later
+            flushDue(true);
+        }
+    }
+    
+    // Messages folded into an existing digest, i.e. provider calls saved
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+    
+    public int getPendingRecipientCount() {
+        return pendingCount.get();
+    }
+    
+    @Override
+    public void close() {
+        closed = true;
+        // Let a digest that is mid-send finish; interrupting the flusher would
+        // abort it inside the delegate
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushDue(true);
+    }
+    
+    private void flushDue(boolean all) {
+        synchronized (flushLock) {
+            long now = System.nanoTime();
+            for (Digest head = dueOrder.peek(); head != null && (all || head.dueNanos <= now); head = dueOrder.peek()) {
+                Digest due = dueOrder.poll();
+                // Detach under the same per-key lock send() uses, so no message lands in a sent digest
+                boolean[] detached = new boolean[1];
+                pending.computeIfPresent(due.recipient, (key, digest) -> {
+                    if (digest != due) {
+                        return digest;
+                    }
+                    detached[0] = true;
+                    return null;
+                });
+                if (!detached[0]) {
+                    continue;
+                }
+                pendingCount.decrementAndGet();
+                try {
+                    delegate.send(due.recipient, render(due));
+                } catch (RuntimeException e) {
+                    System.out.println("Digest to " + due.recipient + " failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    private static String render(Digest digest) {
+        if (digest.messages.size() == 1 && digest.dropped == 0) {
+            return digest.messages.get(0);
+        }
+        StringBuilder text = new StringBuilder()
+            .append("You have ").append(digest.messages.size() + digest.dropped).append(" updates:");
+        for (String message : digest.messages) {
+            text.append("\n- ").append(message);
+        }
+        if (digest.dropped > 0) {
+            text.append("\n- and ").append(digest.dropped).append(" more");
+        }
+        return text.toString();
+    }
+}
+
+class CoalescingExample {
+    public void demonstrate() {
+        System.out.println("=== DIGEST COALESCING ===");
+        
+        try (CoalescingNotifier coalescing = new CoalescingNotifier(
+                 new SMSNotifier(), Duration.ofMillis(100), 1_000_000, 10)) {
+            // A flash-sale shopper places three orders in quick succession
+            coalescing.send("+1234567890", "Order ORD-1601 confirmed");
+            coalescing.send("+1234567890", "Order ORD-1602 confirmed");
+            coalescing.send("+1234567890", "Order ORD-1603 confirmed");
+            coalescing.send("+1987654321", "Order ORD-1604 confirmed");
+            
+            Thread.sleep(200);
+            System.out.println("Provider calls saved: " + coalescing.getCoalescedCount());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Hedged Sends
+// ============================================
+
+// Sends through the primary channel and, if it hasn't acknowledged within the
+// hedge delay, also through the secondary; whichever succeeds first wins. The
+// loser runs to completion and its outcome is ignored: interrupting it would
+// close any interruptible channel it is using, such as a pooled connection.
+// The delay tracks the primary's own latency percentile (e.g. p95), so only
+// about the slowest 5% of sends are hedged. A primary that fails or loses is
+// recorded at no less than the hedge delay, so a slowing primary raises the
+// delay instead of vanishing from the samples. A primary failure hedges
+// straight away. Hedge rate and win counts are exposed for monitoring.
+class HedgingNotifier implements Notifier, AsyncNotifier {
+    private static final int MIN_SAMPLES = 100;
+    private static final int RECOMPUTE_EVERY = 1024;
+    
+    private final Notifier primary;
+    private final Notifier secondary;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+    private final LatencyHistogram primaryLatency = new LatencyHistogram();
+    private final AtomicLong samples = new AtomicLong();
+    private volatile long hedgeDelayNanos;
+    
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder primaryWins = new LongAdder();
+    private final LongAdder secondaryWins = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    
+    public HedgingNotifier(Notifier primary, Notifier secondary, double percentile,
+                           Duration initialDelay, Duration minDelay, Duration maxDelay) {
+        this.primary = primary;
+        this.secondary = secondary;
+        this.percentile = percentile;
+        this.hedgeDelayNanos = initialDelay.toNanos();
+        this.minDelayNanos = minDelay.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        AsyncNotifier.await(sendAsync(recipient, message));
+    }
+    
+    @Override
+    public CompletableFuture<Void> sendAsync(String recipient, String message) {
+        requests.increment();
+        HedgedSend send = new HedgedSend(recipient, message, hedgeDelayNanos);
+        send.start(primary, 0);
+        CompletableFuture.delayedExecutor(send.hedgeDelayNanos, TimeUnit.NANOSECONDS).execute(send::hedge);
+        return send.winner;
+    }
+    
+    public long getHedgeDelayMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(hedgeDelayNanos);
+    }
+    
+    // Fraction of sends that also went to the secondary
+    public double getHedgeRate() {
+        long total = requests.sum();
+        return total == 0 ? 0 : (double) hedges.sum() / total;
+    }
+    
+    public long getPrimaryWins() {
+        return primaryWins.sum();
+    }
+    
+    public long getSecondaryWins() {
+        return secondaryWins.sum();
+    }
+    
+    public long getFailures() {
+        return failures.sum();
+    }
+    
+    // State shared by the primary and hedge attempts of one send
+    private final class HedgedSend {
+        final String recipient;
+        final String message;
+        final long hedgeDelayNanos;
+        final long startNanos = System.nanoTime();
+        final CompletableFuture<Void> winner = new CompletableFuture<>();
+        final AtomicInteger failedAttempts = new AtomicInteger();
+        final AtomicBoolean hedged = new AtomicBoolean();
+        final AtomicBoolean primaryRecorded = new AtomicBoolean();
+        
+        HedgedSend(String recipient, String message, long hedgeDelayNanos) {
+            this.recipient = recipient;
+            this.message = message;
+            this.hedgeDelayNanos = hedgeDelayNanos;
+        }
+        
+        void hedge() {
+            if (!winner.isDone() && hedged.compareAndSet(false, true)) {
+                hedges.increment();
+                start(secondary, 1);
+            }
+        }
+        
+        void start(Notifier channel, int index) {
+            Thread.ofVirtual().start(() -> {
+                try {
+                    channel.send(recipient, message);
+                    if (index == 0) {
+                        recordPrimary(false);
+                    }
+                    if (winner.complete(null)) {
+                        (index == 0 ? primaryWins : secondaryWins).increment();
+                        if (index == 1) {
+                            // The primary is still running; count it as at least this slow
+                            recordPrimary(true);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    if (index == 0) {
+                        recordPrimary(true);
+                        hedge();
+                    }
+                    // Only fail once every attempt that was started has failed
+                    int started = hedged.get() ? 2 : 1;
+                    if (failedAttempts.incrementAndGet() >= started) {
+                        failures.increment();
+                        winner.completeExceptionally(e);
+                    }
+                }
+            });
+        }
+        
+        // One sample per send; a truncated one is at least the delay it was hedged at
+        private void recordPrimary(boolean truncated) {
+            if (primaryRecorded.compareAndSet(false, true)) {
+                long elapsed = System.nanoTime() - startNanos;
+                recordPrimaryLatency(truncated ? Math.max(elapsed, hedgeDelayNanos) : elapsed);
+            }
+        }
+    }
+    
+    private void recordPrimaryLatency(long nanos) {
+        primaryLatency.record(nanos);
+        long count = samples.incrementAndGet();
+        if (count >= MIN_SAMPLES && (count == MIN_SAMPLES || count % RECOMPUTE_EVERY == 0)) {
+            long observed = LatencyHistogram.percentile(primaryLatency.snapshot(), percentile);
+            hedgeDelayNanos = Math.max(minDelayNanos, Math.min(maxDelayNanos, observed));
+        }
+    }
+}
+
+class HedgingExample {
+    public void demonstrate() {
+        System.out.println("=== HEDGED SENDS ===");
+        
+        // Email that occasionally stalls for a second
+        AtomicInteger emails = new AtomicInteger();
+        Notifier slowSometimes = (recipient, message) -> {
+            if (emails.incrementAndGet() % 5 == 0) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException("Email send cancelled");
+                }
+            }
+        };
+        
+        HedgingNotifier hedging = new HedgingNotifier(slowSometimes, (recipient, message) -> { },
+            95, Duration.ofMillis(50), Duration.ofMillis(5), Duration.ofMillis(500));
+        for (int i = 0; i < 20; i++) {
+            hedging.send("customer@example.com", "Order ORD-17" + i + " confirmed");
+        }
+        
+        System.out.println(String.format("Hedge rate %.0f%%, primary wins %d, secondary wins %d",
+            hedging.getHedgeRate() * 100, hedging.getPrimaryWins(), hedging.getSecondaryWins()));
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// ADVANCED USAGE: Bulk Submit
+// ============================================
+
+// Marketing pushes call send() once per recipient. Putting a BatchingNotifier in
+// front turns those calls into sendBatch() on the channel, which groups identical
+// texts into multi-recipient requests: one SMTP transaction per mail domain, one
+// SMPP submit_multi per 254 phone numbers.
+class BulkSubmitExample {
+    public void demonstrate() {
+        System.out.println("=== BULK SUBMIT ===");
+        
+        List<String> customers = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            customers.add("customer" + i + (i % 3 == 0 ? "@example.org" : "@example.com"));
+        }
+        
+        try (StubSmtpServer smtpServer = new StubSmtpServer(Duration.ZERO, address -> false);
+             StubSmsc smsc = new StubSmsc(Duration.ofMillis(5), 0)) {
+            try (SmtpEmailNotifier smtp = new SmtpEmailNotifier(smtpServer.getAddress(), "offers@example.com", "Flash sale", 4);
+                 SmppSmsNotifier smpp = new SmppSmsNotifier(smsc.getAddress(), "marketing", "secret", "15550001111",
+                     16, Duration.ofSeconds(5));
+                 BatchingNotifier email = new BatchingNotifier(smtp, 500, Duration.ofMillis(50));
+                 BatchingNotifier sms = new BatchingNotifier(smpp, 500, Duration.ofMillis(50))) {
+                for (int i = 0; i < customers.size(); i++) {
+                    email.send(customers.get(i), "Flash sale: 20% off everything today!");
+                    sms.send("+1555000" + (1000 + i), "Flash sale: 20% off everything today!");
+                }
+            }
+            System.out.println("Email: " + smtpServer.getRecipientCount() + " recipients in "
+                + smtpServer.getMessageCount() + " SMTP transactions");
+            System.out.println("SMS: " + smsc.getAcceptedCount() + " messages in " + smsc.getSubmitCount() + " submits");
+        } catch (IOException e) {
+            System.out.println("Bulk submit example failed: " + e.getMessage());
+        }
+        
+        // The console channels group the same way
+        new SMSNotifier().sendBatch(List.of(
+            new Notification("+1234567890", "Flash sale!"),
+            new Notification("+1987654321", "Flash sale!"),
+            new Notification("+1234567890", "Your order shipped")));
+        
+        System.out.println();
+    }
+}
+
+
+// ============================================
+// TESTING USAGE: Using Mock
+// ============================================
+
+class MockNotifier implements Notifier {
+    private boolean wasCalled = false;
+    private String lastRecipient;
+    private String lastMessage;
+    
+    @Override
+    public void send(String recipient, String message) {
+        this.wasCalled = true;
+        this.lastRecipient = recipient;
+        this.lastMessage = message;
+        System.out.println("Mock: Captured notification to " + recipient);
+    }
+    
+    public boolean wasNotificationSent() {
+        return wasCalled;
+    }
+    
+    public String getLastRecipient() {
+        return lastRecipient;
+    }
+}
+
+class TestingExample {
+    public void demonstrate() {
+        System.out.println("=== TESTING WITH MOCK ===");
+        
+        Order order = new Order("test@example.com", "+1111111111", "TEST-001");
+        
+        // Use mock for testing - no real notifications sent!
+        MockNotifier mockNotifier = new MockNotifier();
+        GoodOrderService service = new GoodOrderService(mockNotifier);
+        service.processOrder(order);
+        
+        // Verify the notification was sent
+        if (mockNotifier.wasNotificationSent()) {
+            System.out.println("✓ Test passed: Notification was sent to " + 
+                             mockNotifier.getLastRecipient());
+        }
+        
+        System.out.println();
+    }
+}
+
+
+// Thread-safe recorder for load tests. Unlike MockNotifier it keeps every send
+// (up to capacity - after that the oldest are overwritten) with a timestamp.
+// Writers are spread over per-thread stripes, each with its own cursor, so a
+// send is one uncontended fetch-and-add plus three array stores.
+class RecordingNotifier implements Notifier {
+    private final int stripeMask;
+    private final int stripeCapacity;
+    private final AtomicLong[] cursors;
+    private final String[] recipients;
+    private final String[] messages;
+    // Offset from startNanos, plus one; zero means the slot was never written.
+    // Written last, so a non-zero timestamp means the slot is complete.
+    private final AtomicLongArray timestamps;
+    private final long startNanos = System.nanoTime();
+    
+    public RecordingNotifier(int capacity) {
+        int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+        this.stripeMask = stripes - 1;
+        this.stripeCapacity = Integer.highestOneBit(Math.max(capacity / stripes, 1) * 2 - 1);
+        this.cursors = new AtomicLong[stripes];
+        for (int i = 0; i < stripes; i++) {
+            cursors[i] = new AtomicLong();
+        }
+        int slots = stripes * stripeCapacity;
+        this.recipients = new String[slots];
+        this.messages = new String[slots];
+        this.timestamps = new AtomicLongArray(slots);
+    }
+    
+    @Override
+    public void send(String recipient, String message) {
+        long thread = Thread.currentThread().threadId();
+        int stripe = (int) (thread ^ (thread >>> 16)) & stripeMask;
+        long sequence = cursors[stripe].getAndIncrement();
+        int slot = stripe * stripeCapacity + (int) (sequence & (stripeCapacity - 1));
+        recipients[slot] = recipient;
+        messages[slot] = message;
+        timestamps.lazySet(slot, System.nanoTime() - startNanos + 1);
+    }
+    
+    // Total sends, including any that were overwritten
+    public long getSendCount() {
+        long total = 0;
+        for (AtomicLong cursor : cursors) {
+            total += cursor.get();
+        }
+        return total;
+    }
+    
+    public boolean wasNotificationSent() {
+        return getSendCount() > 0;
+    }
+    
+    // Intended for after the run; during a run the result is a best-effort snapshot
+    public Map<String, Long> countsByRecipient() {
+        Map<String, Long> counts = new HashMap<>();
+        for (int slot = 0; slot < recipients.length; slot++) {
+            if (timestamps.get(slot) != 0) {
+                counts.merge(recipients[slot], 1L, Long::sum);
+            }
+        }
+        return counts;
+    }
+    
+    // Gaps between consecutive sends (across all threads), as a latency histogram
+    public LatencyHistogram interArrivalTimes() {
+        long[] recorded = new long[timestamps.length()];
+        int count = 0;
+        for (int slot = 0; slot < recorded.length; slot++) {
+            long timestamp = timestamps.get(slot);
+            if (timestamp != 0) {
+                recorded[count++] = timestamp;
+            }
+        }
+        Arrays.sort(recorded, 0, count);
+        
+        LatencyHistogram gaps = new LatencyHistogram();
+        for (int i = 1; i < count; i++) {
+            gaps.record(recorded[i] - recorded[i - 1]);
+        }
+        return gaps;
+    }
+}
+
+class LoadTestingExample {
+    public void demonstrate() {
+        System.out.println("=== LOAD TESTING WITH A RECORDING NOTIFIER ===");
+        
+        RecordingNotifier recorder = new RecordingNotifier(1 << 16);
+        GoodOrderService service = new GoodOrderService(recorder);
+        
+        Thread[] customers = new Thread[4];
+        for (int t = 0; t < customers.length; t++) {
+            String email = "customer" + t + "@example.com";
+            customers[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    recorder.send(email, "Order confirmed");
+                }
+            });
+            customers[t].start();
+        }
+        for (Thread customer : customers) {
+            try {
+                customer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        service.processOrder(new Order("test@example.com", "+1111111111", "TEST-002"));
+        
+        System.out.println("Recorded sends: " + recorder.getSendCount());
+        System.out.println("Per recipient: " + new TreeMap<>(recorder.countsByRecipient()));
+        long[] gaps = recorder.interArrivalTimes().snapshot();
+        System.out.println("Inter-arrival p50=" + LatencyHistogram.percentile(gaps, 50) + "ns p99="
+            + LatencyHistogram.percentile(gaps, 99) + "ns");
+        
+        System.out.println();
+    }
+}
+
+
 // ============================================
 // DOMAIN MODEL
 // ============================================